@@ -1,67 +1,150 @@
 package pt.isel.cn.landmarks.app;
 
-import pt.isel.cn.landmarks.domain.Landmark;
 import pt.isel.cn.landmarks.domain.LandmarkMetadata;
 import pt.isel.cn.landmarks.domain.Status;
-import pt.isel.cn.landmarks.app.service.VisionService;
+import pt.isel.cn.landmarks.app.idempotency.RecentRequests;
+import pt.isel.cn.landmarks.app.idempotency.RequestLeases;
+import pt.isel.cn.landmarks.app.normalize.PhotoNormalizer;
+import pt.isel.cn.landmarks.app.retry.DeadLetterPublisher;
+import pt.isel.cn.landmarks.app.retry.DetectionFailure;
+import pt.isel.cn.landmarks.app.retry.RetryScheduler;
+import pt.isel.cn.landmarks.app.service.DetectionException;
 import pt.isel.cn.landmarks.app.subscriber.LandmarksSubscriber;
+import pt.isel.cn.landmarks.app.writer.ResultsWriter;
 import pt.isel.cn.landmarks.storage.blob.BlobStorage;
+import pt.isel.cn.landmarks.storage.metadata.AnalysisUpdate;
 import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
  * Main application class for processing landmarks.
  * It subscribes to a message queue, analyzes images for landmarks,
- * and saves the results to a metadata storage.
+ * and saves the results to a metadata storage through a write-behind buffer.
+ * <p>
+ * Processing is idempotent per request: redelivered requests that this worker
+ * is processing or recently processed are caught locally, and otherwise a
+ * lease makes sure only one worker analyses a request that is still in progress.
+ * <p>
+ * Detections that fail with a transient error are retried with backoff.
+ * Requests that fail every attempt are dead-lettered and stored as such, so
+ * they are processed again if replayed, and requests deferred because the retry budget ran out are returned for
+ * redelivery, keeping count of the attempts made so the redelivered request
+ * is dead-lettered once the maximum number of attempts is reached.
+ * <p>
+ * When normalization is enabled, photos are analysed through a downsized
+ * derivative stored next to the original.
  */
 public class LandmarksApp {
     private final BlobStorage blobStorage;
+    private final ResultsWriter resultsWriter;
     private final MetadataStorage metadataStorage;
     private final LandmarksSubscriber subscriber;
-    private final VisionService visionService;
+    private final RetryScheduler retryScheduler;
+    private final DeadLetterPublisher deadLetterPublisher;
+    private final RecentRequests recentRequests;
+    private final RequestLeases requestLeases;
+    private final PhotoNormalizer photoNormalizer;
 
     private static final Logger logger = Logger.getLogger(LandmarksApp.class.getName());
 
-    public LandmarksApp(BlobStorage blobStorage, MetadataStorage metadataStorage, LandmarksSubscriber subscriber, VisionService visionService) {
+    /**
+     * @param photoNormalizer The normalizer of the photos before detection, or null to analyse the originals.
+     */
+    public LandmarksApp(
+            BlobStorage blobStorage,
+            ResultsWriter resultsWriter,
+            MetadataStorage metadataStorage,
+            LandmarksSubscriber subscriber,
+            RetryScheduler retryScheduler,
+            DeadLetterPublisher deadLetterPublisher,
+            RecentRequests recentRequests,
+            RequestLeases requestLeases,
+            PhotoNormalizer photoNormalizer
+    ) {
         this.blobStorage = blobStorage;
+        this.resultsWriter = resultsWriter;
         this.metadataStorage = metadataStorage;
         this.subscriber = subscriber;
-        this.visionService = visionService;
+        this.retryScheduler = retryScheduler;
+        this.deadLetterPublisher = deadLetterPublisher;
+        this.recentRequests = recentRequests;
+        this.requestLeases = requestLeases;
+        this.photoNormalizer = photoNormalizer;
     }
 
     public void run() {
-        subscriber.subscribe((requestId, photoId, photoName, blobName, bucketName) -> {
-            String photoUrl = blobStorage.getPublicUrl(bucketName, blobName);
-            processLandmarkDetection(requestId, photoUrl);
-        });
+        subscriber.subscribe((requestId, photoId, photoName, blobName, bucketName) ->
+                recentRequests.process(requestId, () ->
+                        requestLeases.runClaimed(requestId, attempts ->
+                                processLandmarkDetection(requestId, photoId, photoName, blobName, bucketName, attempts))));
     }
 
-    private void processLandmarkDetection(String requestId, String photoUrl) {
-        try {
-            List<Landmark> landmarks = visionService.detectLandmarks(photoUrl);
-            List<LandmarkMetadata> landmarkMetadataList = landmarks.stream()
-                    .map(landmark -> new LandmarkMetadata(
-                            landmark.name(),
-                            landmark.location(),
-                            landmark.confidence()
-                    ))
-                    .toList();
-            metadataStorage.updateAnalysisMetadata(
-                    requestId,
-                    landmarkMetadataList,
-                    Status.SUCCESS
-            );
-            logger.info("Landmarks detected: " + landmarkMetadataList.size());
-        } catch (Exception e) {
-            logger.severe("Error during landmark detection: " + e.getMessage());
-            metadataStorage.updateAnalysisMetadata(
-                    requestId,
-                    new ArrayList<>(),
-                    Status.FAILURE
-            );
-        }
+    /**
+     * Detects the landmarks of a photo and stores the results.
+     * <p>
+     * A failed detection is stored as a failed analysis, so the returned
+     * future only fails if the results could not be stored, or if the
+     * detection was deferred and the request should be delivered again.
+     *
+     * @param previousAttempts The detection attempts made by earlier deliveries of the request.
+     * @return A future completed once the results are stored.
+     */
+    private CompletableFuture<Void> processLandmarkDetection(
+            String requestId,
+            String photoId,
+            String photoName,
+            String blobName,
+            String bucketName,
+            int previousAttempts
+    ) {
+        CompletableFuture<String> analysedBlob = photoNormalizer == null
+                ? CompletableFuture.completedFuture(blobName)
+                : photoNormalizer.normalize(bucketName, blobName);
+
+        return analysedBlob
+                .thenCompose(blob -> retryScheduler.detect(blobStorage.getPublicUrl(bucketName, blob), previousAttempts))
+                .thenCompose(result -> {
+                    if (result.isRight()) {
+                        return CompletableFuture.completedFuture(new AnalysisUpdate(
+                                requestId,
+                                photoId,
+                                result.getRight().stream()
+                                        .map(landmark -> new LandmarkMetadata(
+                                                landmark.name(),
+                                                landmark.location(),
+                                                landmark.confidence()
+                                        ))
+                                        .toList(),
+                                Status.SUCCESS
+                        ));
+                    }
+
+                    DetectionFailure failure = result.getLeft();
+                    logger.severe("Error during landmark detection of request " + requestId + ": " + failure);
+                    return switch (failure.kind()) {
+                        case TERMINAL -> CompletableFuture.completedFuture(
+                                new AnalysisUpdate(requestId, photoId, new ArrayList<>(), Status.FAILURE));
+                        case EXHAUSTED -> deadLetterPublisher
+                                .publish(requestId, photoId, photoName, blobName, bucketName, failure)
+                                .thenApply(messageId -> new AnalysisUpdate(requestId, photoId, new ArrayList<>(), Status.DEAD_LETTERED));
+                        case DEFERRED -> metadataStorage
+                                .recordDetectionAttemptsAsync(requestId, failure.attempts())
+                                .exceptionally(error -> {
+                                    logger.warning("Could not record the detection attempts of request " + requestId + ": " + error.getMessage());
+                                    return null;
+                                })
+                                .thenCompose(ignored -> CompletableFuture.<AnalysisUpdate>failedFuture(
+                                        new DetectionException("Detection deferred: " + failure.message(), true)));
+                    };
+                })
+                .thenCompose(update -> resultsWriter.write(update)
+                        .thenRun(() -> {
+                            if (update.status() == Status.SUCCESS) {
+                                logger.info("Landmarks detected: " + update.landmarks().size());
+                            }
+                        }));
     }
-}
\ No newline at end of file
+}
@@ -2,20 +2,59 @@ package pt.isel.cn.landmarks.app;
 
 import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.storage.StorageOptions;
-import pt.isel.cn.landmarks.app.service.VisionService;
+import pt.isel.cn.landmarks.app.idempotency.RecentRequests;
+import pt.isel.cn.landmarks.app.idempotency.RequestLeases;
+import pt.isel.cn.landmarks.app.normalize.PhotoNormalizer;
+import pt.isel.cn.landmarks.app.retry.DeadLetterPublisher;
+import pt.isel.cn.landmarks.app.retry.RetryScheduler;
+import pt.isel.cn.landmarks.app.service.LandmarkDetector;
 import pt.isel.cn.landmarks.app.subscriber.LandmarksSubscriber;
+import pt.isel.cn.landmarks.app.subscriber.SubscriberSettings;
+import pt.isel.cn.landmarks.app.writer.ResultsWriter;
+import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.storage.blob.BlobStorage;
 import pt.isel.cn.landmarks.storage.blob.GoogleCloudStorage;
+import pt.isel.cn.landmarks.storage.metadata.CachingMetadataStorage;
 import pt.isel.cn.landmarks.storage.metadata.FirestoreMetadataStorage;
+import pt.isel.cn.landmarks.storage.metadata.MetadataLayout;
 import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
 
+import java.io.IOException;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         BlobStorage blobStorage = new GoogleCloudStorage(StorageOptions.getDefaultInstance().getService());
-        MetadataStorage metadataStorage = new FirestoreMetadataStorage(FirestoreOptions.getDefaultInstance().getService());
-        LandmarksSubscriber subscriber = new LandmarksSubscriber();
-        VisionService visionService = new VisionService();
-        LandmarksApp app = new LandmarksApp(blobStorage, metadataStorage, subscriber, visionService);
+        MetadataStorage metadataStorage = CachingMetadataStorage.fromEnv(
+                new FirestoreMetadataStorage(FirestoreOptions.getDefaultInstance().getService(), MetadataLayout.fromEnv())
+        );
+        ResultsWriter resultsWriter = ResultsWriter.fromEnv(metadataStorage);
+        LandmarkDetector landmarkDetector = LandmarkDetector.fromEnv();
+        RetryScheduler retryScheduler = RetryScheduler.fromEnv(landmarkDetector);
+        DeadLetterPublisher deadLetterPublisher = DeadLetterPublisher.fromEnv();
+        PhotoNormalizer photoNormalizer = PhotoNormalizer.fromEnv(blobStorage);
+        LandmarksSubscriber subscriber = new LandmarksSubscriber(SubscriberSettings.fromEnv());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // The writer stays open until the messages in flight are finished, so their results are stored.
+            subscriber.stop(Config.getEnvLong("WORKER_SHUTDOWN_TIMEOUT_SECONDS", 60));
+            retryScheduler.shutdown();
+            landmarkDetector.close();
+            deadLetterPublisher.shutdown();
+            if (photoNormalizer != null) {
+                photoNormalizer.shutdown();
+            }
+            resultsWriter.close();
+        }));
+        LandmarksApp app = new LandmarksApp(
+                blobStorage,
+                resultsWriter,
+                metadataStorage,
+                subscriber,
+                retryScheduler,
+                deadLetterPublisher,
+                RecentRequests.fromEnv(),
+                RequestLeases.fromEnv(metadataStorage),
+                photoNormalizer
+        );
         app.run();
     }
 }
@@ -0,0 +1,88 @@
+package pt.isel.cn.landmarks.app.idempotency;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Catches duplicate deliveries of a request to the same worker without reading the storage.
+ * <p>
+ * A duplicate of a request this worker is still processing shares the result of
+ * the original delivery, and a duplicate of a request it recently finished is
+ * completed right away. Only the most recently finished requests are remembered.
+ */
+public class RecentRequests {
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> finished;
+
+    private static final Logger logger = Logger.getLogger(RecentRequests.class.getName());
+
+    /**
+     * @param capacity The number of finished requests to remember.
+     */
+    public RecentRequests(int capacity) {
+        this.finished = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        }));
+    }
+
+    /**
+     * Creates the set with the capacity read from the {@code WORKER_SEEN_REQUESTS} environment variable.
+     *
+     * @return The set.
+     */
+    public static RecentRequests fromEnv() {
+        return new RecentRequests(Config.getEnvInt("WORKER_SEEN_REQUESTS", 10_000));
+    }
+
+    /**
+     * Processes a request, unless it is already being processed or was recently finished.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param processing Starts processing the request.
+     * @return A future completed once the request is processed.
+     */
+    public CompletableFuture<Void> process(String requestId, Supplier<CompletableFuture<Void>> processing) {
+        if (finished.contains(requestId)) {
+            logger.info("Skipping request " + requestId + ", which was already processed");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(requestId, result);
+        if (existing != null) {
+            logger.info("Request " + requestId + " is already being processed");
+            return existing;
+        }
+
+        CompletableFuture<Void> started;
+        try {
+            started = processing.get();
+        } catch (Exception e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+
+        started.whenComplete((ignored, error) -> {
+            if (error == null) {
+                finished.add(requestId);
+            }
+            inFlight.remove(requestId);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+}
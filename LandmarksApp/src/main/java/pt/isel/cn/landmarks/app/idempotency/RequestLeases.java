@@ -0,0 +1,172 @@
+package pt.isel.cn.landmarks.app.idempotency;
+
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.storage.metadata.AnalysisClaim;
+import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+/**
+ * Makes sure a request is processed by a single worker at a time.
+ * <p>
+ * Before processing a request, the worker claims a lease on its analysis.
+ * Requests that already succeeded or failed are skipped. If another worker
+ * holds the lease, the delivery waits until the lease expires and claims it
+ * again, by which time the other worker has usually finished the request.
+ * Meanwhile, the subscriber keeps extending the message's ack deadline.
+ * <p>
+ * The lease is renewed every third of its duration while the request is
+ * processed, so slow retries do not let it expire. If processing fails, the
+ * lease is released, so the redelivered message can be claimed right away.
+ */
+public class RequestLeases {
+    private static final Duration MIN_RECHECK_DELAY = Duration.ofSeconds(1);
+    private static final Duration MIN_RENEWAL_PERIOD = Duration.ofSeconds(1);
+
+    private final MetadataStorage metadataStorage;
+    private final String owner;
+    private final Duration leaseDuration;
+    private final ScheduledExecutorService renewer =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("lease-renewer").daemon(true).factory());
+
+    private static final Logger logger = Logger.getLogger(RequestLeases.class.getName());
+
+    /**
+     * @param metadataStorage The storage that holds the leases.
+     * @param owner The identifier of this worker.
+     * @param leaseDuration How long a lease lasts. Should exceed the time it takes to process a request.
+     */
+    public RequestLeases(MetadataStorage metadataStorage, String owner, Duration leaseDuration) {
+        this.metadataStorage = metadataStorage;
+        this.owner = owner;
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * Creates the leases with the worker identifier and lease duration read from the environment.
+     *
+     * @param metadataStorage The storage that holds the leases.
+     * @return The leases.
+     */
+    public static RequestLeases fromEnv(MetadataStorage metadataStorage) {
+        return new RequestLeases(
+                metadataStorage,
+                Config.getEnv("WORKER_ID", UUID.randomUUID().toString()),
+                Duration.ofSeconds(Config.getEnvLong("WORKER_LEASE_SECONDS", 120))
+        );
+    }
+
+    /**
+     * Processes a request once this worker holds its lease.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param processing Starts processing the request, given the detection attempts made by earlier deliveries.
+     * @return A future completed once the request is processed, or skipped because there is nothing left to do.
+     */
+    public CompletableFuture<Void> runClaimed(String requestId, IntFunction<CompletableFuture<Void>> processing) {
+        return metadataStorage.claimAnalysisAsync(requestId, owner, leaseDuration)
+                .thenCompose(claim -> switch (claim.outcome()) {
+                    case CLAIMED -> processClaimed(requestId, claim.attempts(), processing);
+                    case FINISHED -> {
+                        logger.info("Skipping request " + requestId + ", which already finished");
+                        yield CompletableFuture.completedFuture(null);
+                    }
+                    case NOT_FOUND -> {
+                        logger.warning("Skipping request " + requestId + ", which does not exist");
+                        yield CompletableFuture.completedFuture(null);
+                    }
+                    case HELD -> {
+                        Duration delay = recheckDelay(claim.leaseExpiresAt());
+                        logger.info("Request " + requestId + " is held by another worker, checking again in " + delay);
+                        yield CompletableFuture
+                                .runAsync(() -> {}, CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+                                .thenCompose(ignored -> runClaimed(requestId, processing));
+                    }
+                });
+    }
+
+    /**
+     * Processes a claimed request, renewing its lease until processing finishes.
+     */
+    private CompletableFuture<Void> processClaimed(String requestId, int attempts, IntFunction<CompletableFuture<Void>> processing) {
+        LeaseRenewal renewal = new LeaseRenewal(requestId);
+
+        CompletableFuture<Void> processed;
+        try {
+            processed = processing.apply(attempts);
+        } catch (Exception e) {
+            processed = CompletableFuture.failedFuture(e);
+        }
+
+        return processed
+                .handle((ignored, error) -> {
+                    CompletableFuture<?> lastRenewal = renewal.stop();
+                    if (error == null) {
+                        // A terminal update already released the lease.
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return lastRenewal
+                            .handle((claim, renewError) -> null)
+                            .thenCompose(nothing -> metadataStorage.releaseAnalysisAsync(requestId, owner))
+                            .exceptionally(e -> {
+                                logger.warning("Could not release the lease on request " + requestId + ": " + e.getMessage());
+                                return null;
+                            })
+                            .thenCompose(nothing -> CompletableFuture.<Void>failedFuture(error));
+                })
+                .thenCompose(result -> result);
+    }
+
+    /**
+     * Renews the lease on a request periodically until stopped.
+     */
+    private class LeaseRenewal {
+        private final String requestId;
+        private final ScheduledFuture<?> task;
+        private CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+        private boolean stopped = false;
+
+        LeaseRenewal(String requestId) {
+            this.requestId = requestId;
+            long period = Math.max(MIN_RENEWAL_PERIOD.toMillis(), leaseDuration.toMillis() / 3);
+            this.task = renewer.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void renew() {
+            if (stopped) {
+                return;
+            }
+            last = metadataStorage.claimAnalysisAsync(requestId, owner, leaseDuration)
+                    .whenComplete((claim, error) -> {
+                        if (error != null) {
+                            logger.warning("Could not renew the lease on request " + requestId + ": " + error.getMessage());
+                        } else if (claim.outcome() == AnalysisClaim.Outcome.HELD) {
+                            logger.severe("Lost the lease on request " + requestId + " to another worker");
+                        }
+                    });
+        }
+
+        /**
+         * @return The last renewal, which may still be in progress.
+         */
+        synchronized CompletableFuture<?> stop() {
+            stopped = true;
+            task.cancel(false);
+            return last;
+        }
+    }
+
+    private static Duration recheckDelay(Instant leaseExpiresAt) {
+        Duration untilExpiry = Duration.between(Instant.now(), leaseExpiresAt);
+        return untilExpiry.compareTo(MIN_RECHECK_DELAY) < 0 ? MIN_RECHECK_DELAY : untilExpiry;
+    }
+}
@@ -0,0 +1,153 @@
+package pt.isel.cn.landmarks.app.normalize;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Reads the EXIF orientation of JPEG photos and applies it to the pixels.
+ * <p>
+ * Cameras store the pixels as captured and record how the photo must be
+ * rotated or flipped to be displayed upright. Normalized photos carry no
+ * metadata, so the orientation is applied to the pixels instead.
+ */
+public class ExifOrientation {
+    public static final int NORMAL = 1;
+
+    private static final int ORIENTATION_TAG = 0x0112;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private ExifOrientation() {}
+
+    /**
+     * Reads the orientation of a photo from its EXIF metadata.
+     *
+     * @param data The encoded photo.
+     * @return The EXIF orientation, from 1 to 8, or {@link #NORMAL} if the photo is not a JPEG or has none.
+     */
+    public static int read(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return NORMAL;
+        }
+
+        int position = 2;
+        while (position + 4 <= data.length) {
+            if ((data[position] & 0xFF) != 0xFF) {
+                return NORMAL;
+            }
+            int marker = data[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte before the marker.
+                position++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                // The metadata segments all come before the start of the scan.
+                return NORMAL;
+            }
+
+            int length = readUnsignedShort(data, position + 2, false);
+            int segmentStart = position + 4;
+            int segmentEnd = Math.min(data.length, position + 2 + length);
+            if (marker == 0xE1 && hasExifHeader(data, segmentStart, segmentEnd)) {
+                return readTiffOrientation(data, segmentStart + EXIF_HEADER.length, segmentEnd);
+            }
+            position += 2 + length;
+        }
+        return NORMAL;
+    }
+
+    /**
+     * Rotates and flips an image so that it is displayed upright without its orientation.
+     *
+     * @param image The image as stored.
+     * @param orientation The EXIF orientation of the image.
+     * @return The upright image, which is the same image for {@link #NORMAL}.
+     */
+    public static BufferedImage apply(BufferedImage image, int orientation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // Matrices in the order of AffineTransform(m00, m10, m01, m11, m02, m12).
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> null;
+        };
+        if (transform == null) {
+            return image;
+        }
+
+        boolean swapsSides = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapsSides ? height : width, swapsSides ? width : height, image.getType());
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    private static boolean hasExifHeader(byte[] data, int start, int end) {
+        if (end - start < EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (data[start + i] != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the orientation tag in the first image directory of the EXIF TIFF structure.
+     */
+    private static int readTiffOrientation(byte[] data, int start, int end) {
+        if (end - start < 8) {
+            return NORMAL;
+        }
+        boolean littleEndian;
+        if (data[start] == 'I' && data[start + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[start] == 'M' && data[start + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return NORMAL;
+        }
+
+        long directory = start + readUnsignedInt(data, start + 4, littleEndian);
+        if (directory + 2 > end) {
+            return NORMAL;
+        }
+        int entries = readUnsignedShort(data, (int) directory, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) directory + 2 + i * 12;
+            if (entry + 12 > end) {
+                return NORMAL;
+            }
+            if (readUnsignedShort(data, entry, littleEndian) == ORIENTATION_TAG) {
+                int orientation = readUnsignedShort(data, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : NORMAL;
+            }
+        }
+        return NORMAL;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset, boolean littleEndian) {
+        int first = data[offset] & 0xFF;
+        int second = data[offset + 1] & 0xFF;
+        return littleEndian ? first | second << 8 : first << 8 | second;
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset, boolean littleEndian) {
+        long high = readUnsignedShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        long low = readUnsignedShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return high << 16 | low;
+    }
+}
@@ -0,0 +1,149 @@
+package pt.isel.cn.landmarks.app.normalize;
+
+import pt.isel.cn.landmarks.storage.blob.ContentTypes;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Downsizes photos and strips their metadata.
+ * <p>
+ * Photos are decoded with ImageIO, scaled so that neither side exceeds the
+ * maximum dimension, turned upright according to their EXIF orientation and
+ * encoded again without any of the original metadata, as JPEG, or as PNG
+ * when they have transparency.
+ * <p>
+ * Large photos are subsampled while decoding, down to twice the maximum
+ * dimension, so a camera original never has to be fully decoded in memory.
+ */
+public class ImageNormalizer {
+    private final int maxDimension;
+    private final float jpegQuality;
+
+    /**
+     * A normalized photo.
+     *
+     * @param data The encoded photo.
+     * @param contentType The content type of the encoded photo.
+     * @param width The width of the photo, in pixels.
+     * @param height The height of the photo, in pixels.
+     */
+    public record NormalizedImage(byte[] data, String contentType, int width, int height) {}
+
+    /**
+     * @param maxDimension The maximum width and height of a normalized photo, in pixels.
+     * @param jpegQuality The JPEG compression quality, between 0 and 1.
+     */
+    public ImageNormalizer(int maxDimension, float jpegQuality) {
+        this.maxDimension = maxDimension;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Normalizes a photo.
+     *
+     * @param data The encoded photo.
+     * @return The normalized photo.
+     * @throws IOException If the photo could not be decoded or encoded.
+     */
+    public NormalizedImage normalize(byte[] data) throws IOException {
+        BufferedImage image = ExifOrientation.apply(scale(decode(data)), ExifOrientation.read(data));
+        boolean transparent = image.getColorModel().hasAlpha();
+        byte[] encoded = transparent ? encodePng(image) : encodeJpeg(image);
+        return new NormalizedImage(
+                encoded,
+                transparent ? ContentTypes.PNG : ContentTypes.JPEG,
+                image.getWidth(),
+                image.getHeight()
+        );
+    }
+
+    private BufferedImage decode(byte[] data) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int largestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, largestSide / (2 * maxDimension));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales a photo down to the maximum dimension, halving it in steps
+     * so that every step interpolates between neighbouring pixels only.
+     */
+    private BufferedImage scale(BufferedImage image) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        double factor = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        BufferedImage current = image;
+        do {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            current = resize(current, width, height, type);
+        } while (current.getWidth() > targetWidth || current.getHeight() > targetHeight);
+        return current;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height, int type) {
+        BufferedImage resized = new BufferedImage(width, height, type);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", output)) {
+            throw new IOException("No PNG encoder available");
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package pt.isel.cn.landmarks.app.normalize;
+
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.storage.blob.BlobStorage;
+import pt.isel.cn.landmarks.storage.blob.ContentTypes;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Stores a normalized derivative of each photo next to the original and
+ * picks it for detection.
+ * <p>
+ * The derivative of a photo is stored under {@value #NORMALIZED_PREFIX}
+ * followed by the name of the original, so photos analysed again reuse it.
+ * Creating it also corrects the content type of the original, which the
+ * server can only guess from the photo name.
+ * <p>
+ * Decoding and encoding are CPU bound, so they run on a fixed pool, which
+ * also bounds how many decoded photos are in memory at once. A photo that
+ * cannot be normalized is analysed as it is.
+ */
+public class PhotoNormalizer {
+    public static final String NORMALIZED_PREFIX = "normalized/";
+
+    private final BlobStorage blobStorage;
+    private final ImageNormalizer imageNormalizer;
+    private final ExecutorService executor;
+
+    private static final Logger logger = Logger.getLogger(PhotoNormalizer.class.getName());
+
+    /**
+     * @param blobStorage The storage that holds the photos.
+     * @param imageNormalizer The normalizer of the photos.
+     * @param threads The number of photos normalized at once.
+     */
+    public PhotoNormalizer(BlobStorage blobStorage, ImageNormalizer imageNormalizer, int threads) {
+        this.blobStorage = blobStorage;
+        this.imageNormalizer = imageNormalizer;
+        this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("photo-normalizer-", 0).daemon(true).factory());
+    }
+
+    /**
+     * Creates the normalizer configured from the environment.
+     *
+     * @param blobStorage The storage that holds the photos.
+     * @return The normalizer, or null if normalization is disabled with a maximum dimension of 0.
+     */
+    public static PhotoNormalizer fromEnv(BlobStorage blobStorage) {
+        int maxDimension = Config.getEnvInt("PHOTO_NORMALIZE_MAX_DIMENSION", 1600);
+        if (maxDimension <= 0) {
+            return null;
+        }
+        float jpegQuality = Config.getEnvInt("PHOTO_NORMALIZE_JPEG_QUALITY", 85) / 100f;
+        return new PhotoNormalizer(
+                blobStorage,
+                new ImageNormalizer(maxDimension, jpegQuality),
+                Config.getEnvInt("PHOTO_NORMALIZE_THREADS", Runtime.getRuntime().availableProcessors())
+        );
+    }
+
+    /**
+     * Gets the normalized derivative of a photo, creating it if needed.
+     *
+     * @param bucketName The bucket of the photo.
+     * @param blobName The name of the original photo.
+     * @return A future completed with the name of the blob to analyse, which is the original if it could not be normalized.
+     */
+    public CompletableFuture<String> normalize(String bucketName, String blobName) {
+        String normalizedName = NORMALIZED_PREFIX + blobName;
+        return blobStorage.blobExistsAsync(bucketName, normalizedName)
+                .thenCompose(exists -> exists
+                        ? CompletableFuture.completedFuture(normalizedName)
+                        : createNormalized(bucketName, blobName, normalizedName))
+                .exceptionally(e -> {
+                    logger.warning("Could not normalize photo " + blobName + ", analysing the original: " + e.getMessage());
+                    return blobName;
+                });
+    }
+
+    /**
+     * Stops the normalization threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private CompletableFuture<String> createNormalized(String bucketName, String blobName, String normalizedName) {
+        return blobStorage.downloadAsync(bucketName, blobName)
+                .thenCompose(data -> {
+                    CompletableFuture<Void> typed = correctContentType(bucketName, blobName, data);
+                    return CompletableFuture.supplyAsync(() -> normalizeImage(blobName, data), executor)
+                            .thenCompose(image -> blobStorage.uploadAsync(bucketName, normalizedName, image.contentType(), image.data()))
+                            .thenCombine(typed, (uploaded, corrected) -> normalizedName);
+                });
+    }
+
+    private ImageNormalizer.NormalizedImage normalizeImage(String blobName, byte[] data) {
+        try {
+            ImageNormalizer.NormalizedImage image = imageNormalizer.normalize(data);
+            logger.info("Normalized photo " + blobName + " from " + data.length + " to " + image.data().length
+                    + " bytes, " + image.width() + "x" + image.height());
+            return image;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private CompletableFuture<Void> correctContentType(String bucketName, String blobName, byte[] data) {
+        String contentType = ContentTypes.fromBytes(data);
+        if (contentType.equals(ContentTypes.UNKNOWN)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return blobStorage.updateContentTypeAsync(bucketName, blobName, contentType)
+                .exceptionally(e -> {
+                    logger.warning("Could not correct the content type of photo " + blobName + ": " + e.getMessage());
+                    return null;
+                });
+    }
+}
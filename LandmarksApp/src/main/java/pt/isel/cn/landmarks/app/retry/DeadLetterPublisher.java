@@ -0,0 +1,84 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.TopicName;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.storage.util.Futures;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the requests whose detection failed every attempt to a dead-letter topic.
+ * <p>
+ * Dead letters carry the attributes of the original request, so they can be
+ * inspected and published again to the requests topic once the cause is fixed,
+ * plus the error of the last attempt and the number of attempts made. The
+ * analysis of a dead letter is stored as dead-lettered rather than failed,
+ * so the worker that receives the replayed request claims it again.
+ */
+public class DeadLetterPublisher {
+    private final Publisher publisher;
+
+    private static final Logger logger = Logger.getLogger(DeadLetterPublisher.class.getName());
+
+    public DeadLetterPublisher(String topicId) throws IOException {
+        this.publisher = Publisher.newBuilder(TopicName.ofProjectTopicName(Config.PROJECT_ID, topicId)).build();
+    }
+
+    /**
+     * Creates the publisher for the topic in the {@code DEAD_LETTER_TOPIC} environment variable.
+     *
+     * @return The publisher.
+     * @throws IOException If the publisher could not be created.
+     */
+    public static DeadLetterPublisher fromEnv() throws IOException {
+        return new DeadLetterPublisher(Config.getEnv("DEAD_LETTER_TOPIC", "landmarks-dead-letter"));
+    }
+
+    /**
+     * Publishes a dead letter.
+     *
+     * @return A future completed with the message ID once the dead letter is published.
+     */
+    public CompletableFuture<String> publish(
+            String requestId,
+            String photoId,
+            String photoName,
+            String blobName,
+            String bucketName,
+            DetectionFailure failure
+    ) {
+        PubsubMessage message = PubsubMessage.newBuilder()
+                .putAttributes("requestId", requestId)
+                .putAttributes("photoId", photoId)
+                .putAttributes("photoName", photoName)
+                .putAttributes("blobName", blobName)
+                .putAttributes("bucketName", bucketName)
+                .putAttributes("error", failure.message())
+                .putAttributes("attempts", String.valueOf(failure.attempts()))
+                .build();
+
+        return Futures.toCompletableFuture(publisher.publish(message))
+                .whenComplete((messageId, error) -> {
+                    if (error != null) {
+                        logger.severe("Error dead-lettering request " + requestId + ": " + error.getMessage());
+                    } else {
+                        logger.warning("Request " + requestId + " dead-lettered after " + failure.attempts() + " attempts");
+                    }
+                });
+    }
+
+    public void shutdown() {
+        try {
+            publisher.shutdown();
+            publisher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.severe("Interrupted while shutting down dead-letter publisher");
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package pt.isel.cn.landmarks.app.retry;
+
+/**
+ * Why a detection did not produce landmarks.
+ *
+ * @param kind What should happen to the request.
+ * @param attempts The number of attempts made.
+ * @param message The error of the last attempt.
+ */
+public record DetectionFailure(Kind kind, int attempts, String message) {
+    public enum Kind {
+        /**
+         * The error will not go away by trying again, so the analysis failed.
+         */
+        TERMINAL,
+
+        /**
+         * Every attempt failed with a retryable error, so the request is dead-lettered.
+         */
+        EXHAUSTED,
+
+        /**
+         * The retry budget ran out, so the request should be delivered again later.
+         */
+        DEFERRED
+    }
+}
@@ -0,0 +1,45 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import com.google.api.gax.rpc.ApiException;
+import pt.isel.cn.landmarks.app.service.DetectionException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells transient detection errors, worth retrying, from terminal ones.
+ */
+public class ErrorClassifier {
+    private ErrorClassifier() {}
+
+    /**
+     * @param error The error of a detection.
+     * @return True if trying the detection again may succeed.
+     */
+    public static boolean isRetryable(Throwable error) {
+        Throwable cause = unwrap(error);
+        return switch (cause) {
+            case DetectionException detection -> detection.isRetryable();
+            case ApiException api -> api.isRetryable() || switch (api.getStatusCode().getCode()) {
+                case UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED, ABORTED, INTERNAL -> true;
+                default -> false;
+            };
+            case IOException ignored -> true;
+            case TimeoutException ignored -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return The error thrown by the detection, without the wrappers added by futures.
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,66 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+/**
+ * Limits the retries of a worker to a fraction of its detections.
+ * <p>
+ * Every new detection deposits a fraction of a token and every retry takes a
+ * whole one. While detections mostly succeed the budget stays full, but when
+ * most of them fail, as during a Vision outage, retries quickly run out
+ * instead of multiplying the load on the API.
+ */
+public class RetryBudget {
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    /**
+     * @param ratio The tokens deposited by each new detection, which is the long-run fraction of detections that can be retried.
+     * @param maxTokens The maximum number of tokens, which bounds a burst of retries.
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Creates the budget configured from the environment.
+     *
+     * @return The budget.
+     */
+    public static RetryBudget fromEnv() {
+        double ratio;
+        try {
+            ratio = Double.parseDouble(Config.getEnv("DETECTION_RETRY_RATIO", "0.2"));
+        } catch (NumberFormatException e) {
+            ratio = 0.2;
+        }
+        return new RetryBudget(ratio, Config.getEnvInt("DETECTION_RETRY_BUDGET", 100));
+    }
+
+    /**
+     * Records a new detection.
+     */
+    public synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * Takes a token for a retry, if there is one.
+     *
+     * @return True if the retry can go ahead.
+     */
+    public synchronized boolean tryWithdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    public synchronized double available() {
+        return tokens;
+    }
+}
@@ -0,0 +1,80 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the retries of failed detections.
+ * <p>
+ * A growing number of deferred or dead-lettered detections means the
+ * detector keeps failing beyond what the retry budget absorbs.
+ */
+public class RetryMetrics {
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong terminal = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private ScheduledExecutorService reporter;
+
+    private static final Logger logger = Logger.getLogger(RetryMetrics.class.getName());
+
+    /**
+     * Snapshot of the retry metrics.
+     *
+     * @param retries The number of retried attempts so far.
+     * @param recovered The number of detections that succeeded after a retry.
+     * @param terminal The number of detections that failed with an error that is not retryable.
+     * @param deadLettered The number of detections that failed every attempt.
+     * @param deferred The number of detections returned for redelivery because the retry budget ran out.
+     */
+    public record Stats(long retries, long recovered, long terminal, long deadLettered, long deferred) {}
+
+    public void retried() {
+        retries.incrementAndGet();
+    }
+
+    public void recovered() {
+        recovered.incrementAndGet();
+    }
+
+    public void failed(DetectionFailure.Kind kind) {
+        switch (kind) {
+            case TERMINAL -> terminal.incrementAndGet();
+            case EXHAUSTED -> deadLettered.incrementAndGet();
+            case DEFERRED -> deferred.incrementAndGet();
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(retries.get(), recovered.get(), terminal.get(), deadLettered.get(), deferred.get());
+    }
+
+    /**
+     * Starts logging the metrics periodically.
+     *
+     * @param interval The interval between reports.
+     */
+    public void startReporting(Duration interval) {
+        reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("retry-metrics").daemon(true).factory());
+        reporter.scheduleAtFixedRate(
+                () -> logger.info("Retry metrics: " + getStats()),
+                interval.toMillis(),
+                interval.toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Stops logging the metrics.
+     */
+    public void shutdown() {
+        if (reporter != null) {
+            reporter.shutdown();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How failed detections are retried.
+ *
+ * @param maxAttempts The maximum number of attempts of a detection, including the first one.
+ * @param initialBackoff The upper bound of the delay before the first retry.
+ * @param maxBackoff The upper bound of the delay before any retry.
+ */
+public record RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+    /**
+     * Reads the retry policy from the environment.
+     *
+     * @return The retry policy.
+     */
+    public static RetryPolicy fromEnv() {
+        return new RetryPolicy(
+                Config.getEnvInt("DETECTION_MAX_ATTEMPTS", 5),
+                Duration.ofMillis(Config.getEnvLong("DETECTION_INITIAL_BACKOFF_MS", 500)),
+                Duration.ofMillis(Config.getEnvLong("DETECTION_MAX_BACKOFF_MS", 30_000))
+        );
+    }
+
+    /**
+     * Picks the delay before retrying a detection.
+     * <p>
+     * The upper bound doubles with every failed attempt, up to the maximum
+     * backoff, and the delay is uniformly distributed below it, so retries
+     * of detections that failed together are spread out.
+     *
+     * @param failedAttempts The number of attempts that failed so far.
+     * @return The delay.
+     */
+    public Duration backoff(int failedAttempts) {
+        int doublings = Math.min(Math.max(failedAttempts - 1, 0), 30);
+        long ceiling = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << doublings);
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(ceiling, 0) + 1));
+    }
+}
@@ -0,0 +1,124 @@
+package pt.isel.cn.landmarks.app.retry;
+
+import pt.isel.cn.landmarks.app.service.LandmarkDetector;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.Either;
+import pt.isel.cn.landmarks.domain.Landmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Retries the detections that fail with a transient error.
+ * <p>
+ * Retries are delayed with exponential backoff and full jitter, while the
+ * message stays in flight, so its ack deadline keeps being extended and no
+ * other worker picks it up. Every retry takes a token from the retry budget.
+ * Once the budget runs out, as during a Vision outage, failed detections
+ * are deferred instead: they wait for their backoff and are then returned
+ * for redelivery, which keeps flow control slots taken and slows down the
+ * intake of new messages instead of multiplying the calls to the detector.
+ */
+public class RetryScheduler {
+    private final LandmarkDetector detector;
+    private final RetryPolicy policy;
+    private final RetryBudget budget;
+    private final RetryMetrics metrics;
+
+    private static final Logger logger = Logger.getLogger(RetryScheduler.class.getName());
+
+    public RetryScheduler(LandmarkDetector detector, RetryPolicy policy, RetryBudget budget, RetryMetrics metrics) {
+        this.detector = detector;
+        this.policy = policy;
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a scheduler around a detector, configured from the environment.
+     *
+     * @param detector The detector to retry.
+     * @return The scheduler.
+     */
+    public static RetryScheduler fromEnv(LandmarkDetector detector) {
+        RetryMetrics metrics = new RetryMetrics();
+        Duration metricsInterval = Duration.ofSeconds(Config.getEnvLong("DETECTION_RETRY_METRICS_SECONDS", 60));
+        if (!metricsInterval.isZero()) {
+            metrics.startReporting(metricsInterval);
+        }
+        return new RetryScheduler(detector, RetryPolicy.fromEnv(), RetryBudget.fromEnv(), metrics);
+    }
+
+    /**
+     * Detects the landmarks in an image, retrying transient errors.
+     *
+     * @param imageUri The URI of the image.
+     * @param previousAttempts The attempts made by earlier deliveries of the request, which count
+     *                         towards the maximum, so a request deferred over and over is dead-lettered.
+     * @return A future completed with the landmarks, or with the reason there are none.
+     */
+    public CompletableFuture<Either<DetectionFailure, List<Landmark>>> detect(String imageUri, int previousAttempts) {
+        budget.deposit();
+        return attempt(imageUri, previousAttempts + 1);
+    }
+
+    /**
+     * Stops reporting the metrics.
+     */
+    public void shutdown() {
+        metrics.shutdown();
+    }
+
+    private CompletableFuture<Either<DetectionFailure, List<Landmark>>> attempt(String imageUri, int attempt) {
+        CompletableFuture<List<Landmark>> detection;
+        try {
+            detection = detector.detectLandmarks(imageUri);
+        } catch (Exception e) {
+            detection = CompletableFuture.failedFuture(e);
+        }
+
+        return detection
+                .handle((landmarks, error) -> {
+                    if (error == null) {
+                        if (attempt > 1) {
+                            metrics.recovered();
+                        }
+                        return CompletableFuture.completedFuture(Either.<DetectionFailure, List<Landmark>>right(landmarks));
+                    }
+                    return onFailure(imageUri, attempt, ErrorClassifier.unwrap(error));
+                })
+                .thenCompose(result -> result);
+    }
+
+    private CompletableFuture<Either<DetectionFailure, List<Landmark>>> onFailure(String imageUri, int attempt, Throwable error) {
+        if (!ErrorClassifier.isRetryable(error)) {
+            return failure(DetectionFailure.Kind.TERMINAL, attempt, error);
+        }
+        if (attempt >= policy.maxAttempts()) {
+            return failure(DetectionFailure.Kind.EXHAUSTED, attempt, error);
+        }
+
+        Duration backoff = policy.backoff(attempt);
+        if (!budget.tryWithdraw()) {
+            logger.warning("Retry budget exhausted, deferring " + imageUri + " for " + backoff.toMillis() + " ms");
+            return delay(backoff).thenCompose(ignored -> failure(DetectionFailure.Kind.DEFERRED, attempt, error));
+        }
+
+        logger.warning("Detection attempt " + attempt + " of " + imageUri + " failed, retrying in "
+                + backoff.toMillis() + " ms: " + error.getMessage());
+        metrics.retried();
+        return delay(backoff).thenCompose(ignored -> attempt(imageUri, attempt + 1));
+    }
+
+    private CompletableFuture<Either<DetectionFailure, List<Landmark>>> failure(DetectionFailure.Kind kind, int attempts, Throwable error) {
+        metrics.failed(kind);
+        return CompletableFuture.completedFuture(Either.left(new DetectionFailure(kind, attempts, String.valueOf(error.getMessage()))));
+    }
+
+    private static CompletableFuture<Void> delay(Duration duration) {
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(duration.toMillis(), TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,21 @@
+package pt.isel.cn.landmarks.app.service;
+
+/**
+ * Signals that a detector could not analyse an image.
+ */
+public class DetectionException extends Exception {
+    private final boolean retryable;
+
+    /**
+     * @param message The reason the image could not be analysed.
+     * @param retryable True if the error is transient, so analysing the image again may succeed.
+     */
+    public DetectionException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,40 @@
+package pt.isel.cn.landmarks.app.service;
+
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.Landmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Detects the landmarks in images.
+ */
+public interface LandmarkDetector extends AutoCloseable {
+    /**
+     * Detects the landmarks in an image.
+     *
+     * @param imageUri The URI of the image.
+     * @return A future completed with the landmarks, or failed if the image could not be analysed.
+     */
+    CompletableFuture<List<Landmark>> detectLandmarks(String imageUri);
+
+    /**
+     * Releases the resources of the detector.
+     */
+    @Override
+    default void close() {}
+
+    /**
+     * Creates the detector selected by the {@code LANDMARK_DETECTOR} environment
+     * variable: {@code vision}, the default, or {@code local}.
+     *
+     * @return The detector.
+     * @throws IOException If the detector could not be created.
+     */
+    static LandmarkDetector fromEnv() throws IOException {
+        return Config.getEnv("LANDMARK_DETECTOR", "vision").equalsIgnoreCase("local")
+                ? LocalLandmarkDetector.fromEnv()
+                : VisionService.fromEnv();
+    }
+}
@@ -0,0 +1,117 @@
+package pt.isel.cn.landmarks.app.service;
+
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.Landmark;
+import pt.isel.cn.landmarks.domain.Location;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector that makes up landmarks without calling any external service.
+ * <p>
+ * The landmarks of an image are derived from a hash of its URI, so the same
+ * image always gets the same landmarks. Each detection completes after a
+ * random latency and fails with a given probability, with a retryable error,
+ * which makes it possible to load test the worker and the storage without
+ * network access or quota.
+ */
+public class LocalLandmarkDetector implements LandmarkDetector {
+    private static final int MAX_LANDMARKS = 3;
+
+    private static final List<Landmark> CATALOGUE = List.of(
+            new Landmark("Torre de Belém", new Location(38.6916, -9.2160), 0),
+            new Landmark("Mosteiro dos Jerónimos", new Location(38.6979, -9.2068), 0),
+            new Landmark("Castelo de São Jorge", new Location(38.7139, -9.1335), 0),
+            new Landmark("Eiffel Tower", new Location(48.8584, 2.2945), 0),
+            new Landmark("Colosseum", new Location(41.8902, 12.4922), 0),
+            new Landmark("Sagrada Família", new Location(41.4036, 2.1744), 0),
+            new Landmark("Big Ben", new Location(51.5007, -0.1246), 0),
+            new Landmark("Statue of Liberty", new Location(40.6892, -74.0445), 0)
+    );
+
+    private final Duration latency;
+    private final Duration latencyJitter;
+    private final double errorRate;
+
+    /**
+     * @param latency The mean latency of a detection.
+     * @param latencyJitter The maximum deviation from the mean latency, which is uniformly distributed.
+     * @param errorRate The probability of a detection failing, between 0 and 1.
+     */
+    public LocalLandmarkDetector(Duration latency, Duration latencyJitter, double errorRate) {
+        this.latency = latency;
+        this.latencyJitter = latencyJitter;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Creates a detector configured from the environment.
+     *
+     * @return The detector.
+     */
+    public static LocalLandmarkDetector fromEnv() {
+        double errorRate;
+        try {
+            errorRate = Double.parseDouble(Config.getEnv("LOCAL_DETECTOR_ERROR_RATE", "0"));
+        } catch (NumberFormatException e) {
+            errorRate = 0;
+        }
+        return new LocalLandmarkDetector(
+                Duration.ofMillis(Config.getEnvLong("LOCAL_DETECTOR_LATENCY_MS", 300)),
+                Duration.ofMillis(Config.getEnvLong("LOCAL_DETECTOR_LATENCY_JITTER_MS", 150)),
+                errorRate
+        );
+    }
+
+    @Override
+    public CompletableFuture<List<Landmark>> detectLandmarks(String imageUri) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long jitter = latencyJitter.toMillis();
+        long delay = Math.max(0, latency.toMillis() + (jitter == 0 ? 0 : random.nextLong(-jitter, jitter + 1)));
+        boolean fails = random.nextDouble() < errorRate;
+
+        CompletableFuture<List<Landmark>> result = new CompletableFuture<>();
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            if (fails) {
+                result.completeExceptionally(new DetectionException("Simulated detection error for " + imageUri, true));
+            } else {
+                result.complete(landmarksOf(imageUri));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Derives the landmarks of an image from a hash of its URI.
+     */
+    static List<Landmark> landmarksOf(String imageUri) {
+        SplittableRandom random = new SplittableRandom(seedOf(imageUri));
+        int count = random.nextInt(MAX_LANDMARKS + 1);
+
+        List<Landmark> landmarks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Landmark landmark = CATALOGUE.get(random.nextInt(CATALOGUE.size()));
+            landmarks.add(new Landmark(landmark.name(), landmark.location(), random.nextDouble(0.3, 1.0)));
+        }
+        return landmarks;
+    }
+
+    private static long seedOf(String imageUri) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(imageUri.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(hash).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
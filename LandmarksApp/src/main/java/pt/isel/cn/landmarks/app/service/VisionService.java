@@ -1,55 +1,186 @@
 package pt.isel.cn.landmarks.app.service;
 
 import com.google.cloud.vision.v1.*;
+import com.google.rpc.Code;
+import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.domain.Landmark;
 import pt.isel.cn.landmarks.domain.Location;
+import pt.isel.cn.landmarks.storage.util.Futures;
+
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
  * Service class for detecting landmarks in images using Google Cloud Vision API.
+ * <p>
+ * A single client is kept for the lifetime of the worker. Detections requested
+ * concurrently are collected into one {@code batchAnnotateImages} call of up to
+ * {@value #MAX_BATCH_SIZE} images, sent once the batch is full or the first
+ * image waited for the linger time. Each image's result or error is handed back
+ * to the caller that requested it.
  */
-public class VisionService {
+public class VisionService implements LandmarkDetector {
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final Set<Code> RETRYABLE_CODES = EnumSet.of(
+            Code.DEADLINE_EXCEEDED,
+            Code.RESOURCE_EXHAUSTED,
+            Code.ABORTED,
+            Code.INTERNAL,
+            Code.UNAVAILABLE
+    );
 
-    public List<Landmark> detectLandmarks(String imageUri) throws IOException {
-        ImageSource imageSource = ImageSource.newBuilder().setImageUri(imageUri).build();
-        return detectLandmarks(imageSource);
+    private final ImageAnnotatorClient client;
+    private final int batchSize;
+    private final Duration linger;
+    private final ScheduledExecutorService scheduler;
+
+    private List<PendingDetection> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private static final Logger logger = Logger.getLogger(VisionService.class.getName());
+
+    private record PendingDetection(AnnotateImageRequest request, CompletableFuture<List<Landmark>> result) {}
+
+    /**
+     * @param client The Vision client, closed with this service.
+     * @param batchSize The number of images that triggers a call, up to {@value #MAX_BATCH_SIZE}.
+     * @param linger How long an image may wait for others to share its call.
+     */
+    public VisionService(ImageAnnotatorClient client, int batchSize, Duration linger) {
+        this.client = client;
+        this.batchSize = Math.clamp(batchSize, 1, MAX_BATCH_SIZE);
+        this.linger = linger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("vision-batcher").daemon(true).factory());
     }
 
-    private List<Landmark> detectLandmarks(ImageSource imageSource) throws IOException {
-        List<Landmark> landmarks = new ArrayList<>();
-        List<AnnotateImageRequest> requests = new ArrayList<>();
+    /**
+     * Creates the service with a new client and batching configured from the environment.
+     *
+     * @return The service.
+     * @throws IOException If the client could not be created.
+     */
+    public static VisionService fromEnv() throws IOException {
+        return new VisionService(
+                ImageAnnotatorClient.create(),
+                Config.getEnvInt("VISION_BATCH_SIZE", MAX_BATCH_SIZE),
+                Duration.ofMillis(Config.getEnvLong("VISION_LINGER_MS", 50))
+        );
+    }
 
+    @Override
+    public CompletableFuture<List<Landmark>> detectLandmarks(String imageUri) {
+        ImageSource imageSource = ImageSource.newBuilder().setImageUri(imageUri).build();
         Image image = Image.newBuilder().setSource(imageSource).build();
         Feature feature = Feature.newBuilder().setType(Feature.Type.LANDMARK_DETECTION).build();
         AnnotateImageRequest request = AnnotateImageRequest.newBuilder().addFeatures(feature).setImage(image).build();
 
-        requests.add(request);
+        CompletableFuture<List<Landmark>> result = new CompletableFuture<>();
+        synchronized (this) {
+            pending.add(new PendingDetection(request, result));
+            if (pending.size() >= batchSize) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, linger.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the pending images in a single call.
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
 
-        // Initialize client that will be used to send requests. This client only needs to be created
-        // once, and can be reused for multiple requests. After completing all of your requests, call
-        // the "close" method on the client to safely clean up any remaining background resources.
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
-            BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-            List<AnnotateImageResponse> responses = response.getResponsesList();
+        List<PendingDetection> batch = pending;
+        pending = new ArrayList<>();
 
-            for (AnnotateImageResponse res : responses) {
-                if (res.hasError()) {
-                    System.out.println("Error: " + res.getError().getMessage());
+        BatchAnnotateImagesRequest request = BatchAnnotateImagesRequest.newBuilder()
+                .addAllRequests(batch.stream().map(PendingDetection::request).toList())
+                .build();
+
+        Futures.toCompletableFuture(client.batchAnnotateImagesCallable().futureCall(request))
+                .whenComplete((response, error) -> complete(batch, response, error));
+    }
+
+    private static void complete(List<PendingDetection> batch, BatchAnnotateImagesResponse response, Throwable error) {
+        if (error != null) {
+            logger.severe("Error annotating " + batch.size() + " images: " + error.getMessage());
+            batch.forEach(detection -> detection.result().completeExceptionally(error));
+            return;
+        }
+
+        List<AnnotateImageResponse> responses = response.getResponsesList();
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<List<Landmark>> result = batch.get(i).result();
+            // Every image is completed on its own, so an unexpected response cannot leave the rest of the batch waiting.
+            try {
+                if (i >= responses.size()) {
+                    result.completeExceptionally(new DetectionException("No response for image", true));
                     continue;
                 }
-                for (EntityAnnotation annotation : res.getLandmarkAnnotationsList()) {
-                    LocationInfo locationInfo = annotation.getLocationsList().iterator().next();
-                    landmarks.add(new Landmark(
-                            annotation.getDescription(),
-                            new Location(locationInfo.getLatLng().getLatitude(), locationInfo.getLatLng().getLongitude()),
-                            annotation.getScore()
+
+                AnnotateImageResponse res = responses.get(i);
+                if (res.hasError()) {
+                    result.completeExceptionally(new DetectionException(
+                            res.getError().getMessage(),
+                            RETRYABLE_CODES.contains(Code.forNumber(res.getError().getCode()))
                     ));
+                    continue;
                 }
+                result.complete(toLandmarks(res));
+            } catch (Exception e) {
+                logger.severe("Error reading the annotations of an image: " + e.getMessage());
+                result.completeExceptionally(e);
             }
         }
+    }
 
+    private static List<Landmark> toLandmarks(AnnotateImageResponse res) {
+        List<Landmark> landmarks = new ArrayList<>();
+        for (EntityAnnotation annotation : res.getLandmarkAnnotationsList()) {
+            if (annotation.getLocationsCount() == 0) {
+                continue;
+            }
+            LocationInfo locationInfo = annotation.getLocations(0);
+            landmarks.add(new Landmark(
+                    annotation.getDescription(),
+                    new Location(locationInfo.getLatLng().getLatitude(), locationInfo.getLatLng().getLongitude()),
+                    annotation.getScore()
+            ));
+        }
         return landmarks;
     }
+
+    /**
+     * Sends the pending images and releases the client once every call finished.
+     */
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+        client.shutdown();
+        try {
+            client.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.close();
+    }
 }
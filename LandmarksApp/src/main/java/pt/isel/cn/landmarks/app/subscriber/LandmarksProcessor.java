@@ -1,9 +1,14 @@
 package pt.isel.cn.landmarks.app.subscriber;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Functional interface for processing messages from the landmarks subscriber.
+ * <p>
+ * The returned future completes once the message is fully handled, and
+ * fails if it should be delivered again.
  */
 @FunctionalInterface
 public interface LandmarksProcessor {
-    void processMessage(String requestId, String message, String photoName, String blobName, String bucketName);
+    CompletableFuture<Void> processMessage(String requestId, String message, String photoName, String blobName, String bucketName);
 }
\ No newline at end of file
@@ -4,18 +4,25 @@ import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.cloud.pubsub.v1.MessageReceiver;
 import com.google.pubsub.v1.PubsubMessage;
 
+import java.util.logging.Logger;
+
 /**
  * LandmarksReceiver is a class that implements the MessageReceiver interface to handle
  * messages received from a Google Cloud Pub/Sub subscription.
  * <p>
  * It processes the message by extracting relevant attributes and passing them to a LandmarksProcessor
- * for further processing.
+ * for further processing. The message is acknowledged once the processing completes,
+ * or returned for redelivery if it fails.
  */
 public class LandmarksReceiver implements MessageReceiver {
     private final LandmarksProcessor landmarksProcessor;
+    private final ProcessingMetrics metrics;
+
+    private static final Logger logger = Logger.getLogger(LandmarksReceiver.class.getName());
 
-    public LandmarksReceiver(LandmarksProcessor landmarksProcessor) {
+    public LandmarksReceiver(LandmarksProcessor landmarksProcessor, ProcessingMetrics metrics) {
         this.landmarksProcessor = landmarksProcessor;
+        this.metrics = metrics;
     }
 
     @Override
@@ -25,9 +32,23 @@ public class LandmarksReceiver implements MessageReceiver {
         String photoName = pubsubMessage.getAttributesOrDefault("photoName", "");
         String blobName = pubsubMessage.getAttributesOrDefault("blobName", "");
         String bucketName = pubsubMessage.getAttributesOrDefault("bucketName", "");
+        long receivedAt = metrics.received();
 
-        landmarksProcessor.processMessage(requestId, photoId, photoName, blobName, bucketName);
-
-        ackReplyConsumer.ack();
+        try {
+            landmarksProcessor.processMessage(requestId, photoId, photoName, blobName, bucketName)
+                    .whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            logger.severe("Error processing request " + requestId + ": " + error.getMessage());
+                            ackReplyConsumer.nack();
+                        } else {
+                            ackReplyConsumer.ack();
+                        }
+                        metrics.finished(receivedAt, error == null);
+                    });
+        } catch (Exception e) {
+            logger.severe("Error processing request " + requestId + ": " + e.getMessage());
+            ackReplyConsumer.nack();
+            metrics.finished(receivedAt, false);
+        }
     }
 }
\ No newline at end of file
@@ -1,29 +1,89 @@
 package pt.isel.cn.landmarks.app.subscriber;
 
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
 import com.google.api.gax.core.ExecutorProvider;
 import com.google.api.gax.core.InstantiatingExecutorProvider;
 import com.google.cloud.pubsub.v1.Subscriber;
 import com.google.pubsub.v1.ProjectSubscriptionName;
 import pt.isel.cn.landmarks.domain.Config;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
 /**
  * Class responsible for subscribing to the Google Cloud Pub/Sub topic for landmarks photos.
  * It uses the Subscriber class to listen for messages and process them using a LandmarksProcessor.
+ * <p>
+ * Messages are processed in parallel by a pool of executor threads. Flow control
+ * bounds the messages in flight, from receipt until the results covering them are
+ * stored, so a worker never pulls more than it can finish before the ack deadline.
+ * The ack deadline of a message in flight is extended automatically, so slow
+ * detections are not redelivered to other workers.
  */
 public class LandmarksSubscriber {
     private static final String PROJECT_ID = Config.PROJECT_ID;
     private static final String SUBSCRIPTION_ID = "landmarks-photos-sub";
 
+    private final SubscriberSettings settings;
+    private final ProcessingMetrics metrics = new ProcessingMetrics();
+    private volatile Subscriber activeSubscriber;
+
+    private static final Logger logger = Logger.getLogger(LandmarksSubscriber.class.getName());
+
+    public LandmarksSubscriber(SubscriberSettings settings) {
+        this.settings = settings;
+    }
+
     public void subscribe(LandmarksProcessor subscriber) {
         ProjectSubscriptionName subscriptionName =
                 ProjectSubscriptionName.of(PROJECT_ID, SUBSCRIPTION_ID);
         ExecutorProvider executorProvider = InstantiatingExecutorProvider
                 .newBuilder()
-                .setExecutorThreadCount(1)
+                .setExecutorThreadCount(settings.executorThreads())
                 .build();
-        Subscriber sub = Subscriber.newBuilder(subscriptionName, new LandmarksReceiver(subscriber))
+        FlowControlSettings flowControlSettings = FlowControlSettings
+                .newBuilder()
+                .setMaxOutstandingElementCount(settings.maxOutstandingMessages())
+                .setMaxOutstandingRequestBytes(settings.maxOutstandingBytes())
+                .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                .build();
+        Subscriber sub = Subscriber.newBuilder(subscriptionName, new LandmarksReceiver(subscriber, metrics))
+                .setParallelPullCount(settings.pullStreams())
                 .setExecutorProvider(executorProvider)
+                .setFlowControlSettings(flowControlSettings)
+                .setMaxAckExtensionPeriodDuration(settings.maxAckExtension())
+                .setMaxDurationPerAckExtensionDuration(settings.maxAckExtensionStep())
                 .build();
-        sub.startAsync().awaitTerminated();
+
+        activeSubscriber = sub;
+        if (!settings.metricsInterval().isZero()) {
+            metrics.startReporting(settings.metricsInterval());
+        }
+        try {
+            sub.startAsync().awaitTerminated();
+        } finally {
+            metrics.shutdown();
+        }
+    }
+
+    /**
+     * Stops pulling messages and waits for the messages in flight to be acknowledged or returned.
+     *
+     * @param timeout How long to wait, in seconds.
+     */
+    public void stop(long timeout) {
+        Subscriber sub = activeSubscriber;
+        if (sub == null) {
+            return;
+        }
+        try {
+            sub.stopAsync().awaitTerminated(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.severe("Timed out waiting for the messages in flight");
+        } catch (IllegalStateException e) {
+            logger.severe("Subscriber failed: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
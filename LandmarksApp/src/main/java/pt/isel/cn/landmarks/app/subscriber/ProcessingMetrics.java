@@ -0,0 +1,128 @@
+package pt.isel.cn.landmarks.app.subscriber;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the messages processed by a worker.
+ * <p>
+ * A message is in flight from the moment it is received until it is
+ * acknowledged or returned. The throughput and the number of messages in
+ * flight, compared with the flow control limits, tell whether a worker can
+ * take more load before another one is needed.
+ */
+public class ProcessingMetrics {
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong nacked = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private long lastFinished = 0;
+    private long lastProcessingNanos = 0;
+    private long lastSnapshotNanos = System.nanoTime();
+    private ScheduledExecutorService reporter;
+
+    private static final Logger logger = Logger.getLogger(ProcessingMetrics.class.getName());
+
+    /**
+     * Snapshot of the processing metrics.
+     *
+     * @param received The number of messages received so far.
+     * @param acked The number of messages acknowledged so far.
+     * @param nacked The number of messages returned for redelivery so far.
+     * @param inFlight The number of messages currently in flight.
+     * @param peakInFlight The highest number of messages in flight at once since the last snapshot.
+     * @param throughput The messages finished per second since the last snapshot.
+     * @param averageProcessingTime The average time from receipt to acknowledgement since the last snapshot.
+     */
+    public record Stats(
+            long received,
+            long acked,
+            long nacked,
+            int inFlight,
+            int peakInFlight,
+            double throughput,
+            Duration averageProcessingTime
+    ) {}
+
+    /**
+     * Records the receipt of a message.
+     *
+     * @return The receipt time, to pass to {@link #finished(long, boolean)}.
+     */
+    public long received() {
+        received.incrementAndGet();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        return System.nanoTime();
+    }
+
+    /**
+     * Records that a message was acknowledged or returned.
+     *
+     * @param receivedAt The receipt time of the message.
+     * @param acknowledged True if the message was acknowledged, false if it was returned.
+     */
+    public void finished(long receivedAt, boolean acknowledged) {
+        processingNanos.addAndGet(System.nanoTime() - receivedAt);
+        (acknowledged ? acked : nacked).incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Takes a snapshot of the metrics. The peak, throughput and processing
+     * time metrics restart with every snapshot.
+     *
+     * @return The metrics.
+     */
+    public synchronized Stats getStats() {
+        long now = System.nanoTime();
+        long finishedNow = acked.get() + nacked.get();
+        long processingNanosNow = processingNanos.get();
+        long finishedSince = finishedNow - lastFinished;
+        long elapsedNanos = Math.max(1, now - lastSnapshotNanos);
+        long averageNanos = finishedSince == 0 ? 0 : (processingNanosNow - lastProcessingNanos) / finishedSince;
+        lastFinished = finishedNow;
+        lastProcessingNanos = processingNanosNow;
+        lastSnapshotNanos = now;
+
+        return new Stats(
+                received.get(),
+                acked.get(),
+                nacked.get(),
+                inFlight.get(),
+                peakInFlight.getAndSet(inFlight.get()),
+                finishedSince * 1e9 / elapsedNanos,
+                Duration.ofNanos(averageNanos)
+        );
+    }
+
+    /**
+     * Starts logging the metrics periodically.
+     *
+     * @param interval The interval between reports.
+     */
+    public void startReporting(Duration interval) {
+        reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("processing-metrics").daemon(true).factory());
+        reporter.scheduleAtFixedRate(
+                () -> logger.info("Processing metrics: " + getStats()),
+                interval.toMillis(),
+                interval.toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Stops logging the metrics.
+     */
+    public void shutdown() {
+        if (reporter != null) {
+            reporter.shutdown();
+        }
+    }
+}
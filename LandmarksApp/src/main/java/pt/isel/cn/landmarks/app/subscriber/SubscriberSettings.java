@@ -0,0 +1,44 @@
+package pt.isel.cn.landmarks.app.subscriber;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.time.Duration;
+
+/**
+ * Settings of the subscriber that pulls analysis requests.
+ *
+ * @param pullStreams The number of streaming pulls opened against the subscription.
+ * @param executorThreads The number of threads that process the received messages.
+ * @param maxOutstandingMessages The maximum number of messages received but not yet acknowledged.
+ * @param maxOutstandingBytes The maximum size of the messages received but not yet acknowledged.
+ * @param maxAckExtension How long the ack deadline of a message in flight keeps being extended.
+ * @param maxAckExtensionStep The maximum extension of each ack deadline renewal, which bounds how long
+ *                            a message held by a worker that stopped takes to be redelivered.
+ * @param metricsInterval The interval between processing metrics reports, or zero to disable them.
+ */
+public record SubscriberSettings(
+        int pullStreams,
+        int executorThreads,
+        long maxOutstandingMessages,
+        long maxOutstandingBytes,
+        Duration maxAckExtension,
+        Duration maxAckExtensionStep,
+        Duration metricsInterval
+) {
+    /**
+     * Reads the subscriber settings from the environment.
+     *
+     * @return The subscriber settings.
+     */
+    public static SubscriberSettings fromEnv() {
+        return new SubscriberSettings(
+                Config.getEnvInt("SUBSCRIBER_PULL_STREAMS", 1),
+                Config.getEnvInt("SUBSCRIBER_EXECUTOR_THREADS", Runtime.getRuntime().availableProcessors() * 4),
+                Config.getEnvLong("SUBSCRIBER_MAX_OUTSTANDING_MESSAGES", 64),
+                Config.getEnvLong("SUBSCRIBER_MAX_OUTSTANDING_BYTES", 16L * 1024 * 1024),
+                Duration.ofMinutes(Config.getEnvLong("SUBSCRIBER_MAX_ACK_EXTENSION_MINUTES", 30)),
+                Duration.ofSeconds(Config.getEnvLong("SUBSCRIBER_ACK_EXTENSION_SECONDS", 60)),
+                Duration.ofSeconds(Config.getEnvLong("SUBSCRIBER_METRICS_SECONDS", 60))
+        );
+    }
+}
@@ -0,0 +1,179 @@
+package pt.isel.cn.landmarks.app.writer;
+
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.storage.metadata.AnalysisUpdate;
+import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for analysis results.
+ * <p>
+ * Results are buffered and written to the metadata storage in bulk, once
+ * enough of them are pending or the oldest one waited for the maximum delay.
+ * A later result for a request replaces a pending one, so only the latest is
+ * written. The future of each result completes once the commit covering it
+ * succeeds, which lets the caller delay acknowledging the message until then.
+ */
+public class ResultsWriter implements AutoCloseable {
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final MetadataStorage metadataStorage;
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+    private final ScheduledExecutorService scheduler;
+    private final Set<CompletableFuture<Void>> commits = new HashSet<>();
+
+    private Map<String, PendingUpdate> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed = false;
+
+    private static final Logger logger = Logger.getLogger(ResultsWriter.class.getName());
+
+    private record PendingUpdate(AnalysisUpdate update, List<CompletableFuture<Void>> waiters) {}
+
+    /**
+     * @param metadataStorage The storage the results are written to.
+     * @param maxBatchSize The number of pending results that triggers a write.
+     * @param maxDelay How long a result may wait before it is written.
+     */
+    public ResultsWriter(MetadataStorage metadataStorage, int maxBatchSize, Duration maxDelay) {
+        this.metadataStorage = metadataStorage;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "results-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a writer configured from the environment.
+     *
+     * @param metadataStorage The storage the results are written to.
+     * @return The writer.
+     */
+    public static ResultsWriter fromEnv(MetadataStorage metadataStorage) {
+        return new ResultsWriter(
+                metadataStorage,
+                Config.getEnvInt("RESULTS_BATCH_SIZE", 100),
+                Duration.ofMillis(Config.getEnvLong("RESULTS_FLUSH_MS", 200))
+        );
+    }
+
+    /**
+     * Buffers the result of an analysis.
+     *
+     * @param update The result to write.
+     * @return A future completed once the result is stored, or failed if it could not be.
+     */
+    public CompletableFuture<Void> write(AnalysisUpdate update) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Results writer is closed"));
+            }
+
+            PendingUpdate previous = pending.remove(update.requestId());
+            List<CompletableFuture<Void>> waiters = previous != null ? previous.waiters() : new ArrayList<>();
+            waiters.add(written);
+            pending.put(update.requestId(), new PendingUpdate(update, waiters));
+
+            if (pending.size() >= maxBatchSize) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Writes every pending result.
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, PendingUpdate> batch = pending;
+        pending = new LinkedHashMap<>();
+
+        List<AnalysisUpdate> updates = batch.values().stream().map(PendingUpdate::update).toList();
+        CompletableFuture<Void> commit = metadataStorage.updateAnalysisMetadataBatchAsync(updates)
+                .handle((failed, error) -> {
+                    complete(batch, failed, error);
+                    return null;
+                });
+        commits.add(commit);
+        commit.whenComplete((ignored, error) -> {
+            synchronized (this) {
+                commits.remove(commit);
+            }
+        });
+    }
+
+    private static void complete(Map<String, PendingUpdate> batch, Set<String> failed, Throwable error) {
+        if (error != null) {
+            logger.severe("Error writing " + batch.size() + " results: " + error.getMessage());
+        } else if (!failed.isEmpty()) {
+            logger.severe("Error writing " + failed.size() + " of " + batch.size() + " results");
+        }
+
+        batch.forEach((requestId, pendingUpdate) -> {
+            boolean written = error == null && !failed.contains(requestId);
+            for (CompletableFuture<Void> waiter : pendingUpdate.waiters()) {
+                if (written) {
+                    waiter.complete(null);
+                } else {
+                    waiter.completeExceptionally(new IllegalStateException("Could not write results of request " + requestId));
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the pending results, stops accepting new ones, and waits for
+     * the commits in progress to finish.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<?>[] inProgress;
+        synchronized (this) {
+            closed = true;
+            flush();
+            inProgress = commits.toArray(CompletableFuture[]::new);
+        }
+        scheduler.shutdown();
+
+        try {
+            CompletableFuture.allOf(inProgress).get(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.severe("Timed out writing the pending results on close");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.severe("Error writing the pending results on close: " + e.getMessage());
+        }
+    }
+}
@@ -9,6 +9,7 @@ import io.grpc.netty.shaded.io.netty.handler.codec.http.HttpResponseStatus;
 import io.grpc.stub.StreamObserver;
 import landmarks.*;
 import pt.isel.cn.landmarks.client.dto.IPsPayload;
+import pt.isel.cn.landmarks.client.observers.ResumableUploadResponseObserver;
 import pt.isel.cn.landmarks.client.observers.SubmitPhotoResponseObserver;
 import pt.isel.cn.landmarks.domain.Either;
 import pt.isel.cn.landmarks.client.error.NoValidIPs;
@@ -16,6 +17,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -24,6 +26,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
@@ -38,6 +41,8 @@ public class Client {
     private static final String ZONE = "europe-southwest1-a";
     private static final String IP_LOOKUP_URL = "https://europe-west1-cn2425-t1-g06.cloudfunctions.net/funcIPLookup?zone=" + ZONE + "&groupName=" + GROUP_NAME;
     private static final Integer SERVICE_PORT = 8000;
+    private static final Integer MAX_UPLOAD_ATTEMPTS = 5;
+    private static final Integer PHOTOS_PAGE_SIZE = 50;
 
     public static void main(String[] args) {
         connectToService();
@@ -54,6 +59,9 @@ public class Client {
                     case 1 -> submitPhoto(scanner);
                     case 2 -> getResults(scanner);
                     case 3 -> getPhotos(scanner);
+                    case 4 -> submitPhotoResumable(scanner);
+                    case 5 -> watchResults(scanner);
+                    case 6 -> getResultsBatch(scanner);
                     case 99 -> end = true;
                 }
             } catch (Exception ex) {
@@ -75,20 +83,30 @@ public class Client {
                 return;
             }
 
-            SubmitPhotoResponseObserver responseObserver = new SubmitPhotoResponseObserver();
-            StreamObserver<SubmitPhotoRequest> requestObserver = noBlockStub.submitPhoto(responseObserver);
-
             String photoName = file.getName().substring(0, file.getName().lastIndexOf('.'));
             String photoHash = calculateFileHash(file);
 
+            ImageMetadata metadata = ImageMetadata.newBuilder()
+                    .setName(photoName)
+                    .setHash(photoHash)
+                    .build();
+
+            PhotoStatus photoStatus = blockingStub.checkPhoto(metadata);
+
+            SubmitPhotoResponseObserver responseObserver = new SubmitPhotoResponseObserver();
+            StreamObserver<SubmitPhotoRequest> requestObserver = noBlockStub.submitPhoto(responseObserver);
+
             requestObserver.onNext(SubmitPhotoRequest.newBuilder()
-                    .setMetadata(ImageMetadata.newBuilder()
-                            .setName(photoName)
-                            .setHash(photoHash)
-                            .build()
-                    ).build()
+                    .setMetadata(metadata)
+                    .build()
             );
 
+            if (photoStatus.getExists()) {
+                System.out.println("Photo already stored on the server, skipping upload.");
+                requestObserver.onCompleted();
+                return;
+            }
+
             try (FileInputStream fis = new FileInputStream(file)) {
                 byte[] buffer = new byte[BLOCK_SIZE];
                 int bytesRead;
@@ -105,13 +123,124 @@ public class Client {
         }
     }
 
+    private static void submitPhotoResumable(Scanner scanner) {
+        try {
+            System.out.print("Enter path to photo file: ");
+            String path = scanner.nextLine();
+
+            File file = new File(path);
+
+            if (!file.exists()) {
+                System.out.println("File not found: " + path);
+                return;
+            }
+
+            String photoName = file.getName().substring(0, file.getName().lastIndexOf('.'));
+            String photoHash = calculateFileHash(file);
+
+            ImageMetadata metadata = ImageMetadata.newBuilder()
+                    .setName(photoName)
+                    .setHash(photoHash)
+                    .build();
+
+            if (blockingStub.checkPhoto(metadata).getExists()) {
+                System.out.println("Photo already stored on the server, skipping upload.");
+                StreamObserver<SubmitPhotoRequest> requestObserver = noBlockStub.submitPhoto(new SubmitPhotoResponseObserver());
+                requestObserver.onNext(SubmitPhotoRequest.newBuilder().setMetadata(metadata).build());
+                requestObserver.onCompleted();
+                return;
+            }
+
+            UploadStatus status = blockingStub.startUpload(metadata);
+            String sessionId = status.getSessionId();
+            long offset = status.getCommittedOffset();
+
+            for (int attempt = 1; attempt <= MAX_UPLOAD_ATTEMPTS; attempt++) {
+                ResumableUploadResponseObserver responseObserver = new ResumableUploadResponseObserver();
+                StreamObserver<UploadChunk> requestObserver = noBlockStub.resumeUpload(responseObserver);
+
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    raf.seek(offset);
+                    byte[] buffer = new byte[BLOCK_SIZE];
+                    long position = offset;
+                    int bytesRead;
+                    while (!responseObserver.isDone() && (bytesRead = raf.read(buffer)) != -1) {
+                        requestObserver.onNext(UploadChunk.newBuilder()
+                                .setSessionId(sessionId)
+                                .setOffset(position)
+                                .setData(ByteString.copyFrom(buffer, 0, bytesRead))
+                                .build());
+                        position += bytesRead;
+                    }
+                    requestObserver.onCompleted();
+                } catch (IOException e) {
+                    requestObserver.onError(e);
+                }
+
+                responseObserver.await();
+
+                if (responseObserver.getError() == null) {
+                    System.out.println("Photo submitted with request ID: " + responseObserver.getIdentifier());
+                    return;
+                }
+
+                System.err.println("Upload attempt " + attempt + " failed: " + responseObserver.getError().getMessage());
+                Thread.sleep(1000L * attempt);
+                offset = blockingStub.queryUpload(UploadSession.newBuilder().setSessionId(sessionId).build())
+                        .getCommittedOffset();
+                System.out.println("Resuming upload at offset " + offset);
+            }
+
+            System.err.println("Giving up after " + MAX_UPLOAD_ATTEMPTS + " attempts.");
+        } catch (Exception e) {
+            System.err.println("Exception in submitPhotoResumable: " + e.getMessage());
+        }
+    }
+
     static void getResults(Scanner scanner) {
         System.out.print("ID: ");
         String id = scanner.nextLine();
 
         SubmitIdentifier request = SubmitIdentifier.newBuilder().setIdentifier(id).build();
-        LookupResults results = blockingStub.lookupResults(request);
+        printResults(id, blockingStub.lookupResults(request));
+    }
 
+    static void getResultsBatch(Scanner scanner) {
+        System.out.print("IDs (separated by spaces): ");
+        String[] ids = scanner.nextLine().trim().split("\\s+");
+
+        SubmitIdentifiers.Builder request = SubmitIdentifiers.newBuilder().setIncludeMaps(true);
+        for (String id : ids) {
+            if (!id.isEmpty()) {
+                request.addIdentifiers(SubmitIdentifier.newBuilder().setIdentifier(id));
+            }
+        }
+
+        BatchLookupResults response = blockingStub.lookupResultsBatch(request.build());
+        for (BatchLookupResult result : response.getResultsList()) {
+            System.out.println();
+            System.out.println("Request " + result.getIdentifier() + ":");
+            if (result.hasFailure()) {
+                System.out.println(result.getFailure().getMessage());
+            } else {
+                printResults(result.getIdentifier(), result.getResults());
+            }
+        }
+    }
+
+    static void watchResults(Scanner scanner) {
+        System.out.print("ID: ");
+        String id = scanner.nextLine();
+
+        System.out.println("Waiting for the analysis to finish...");
+        SubmitIdentifier request = SubmitIdentifier.newBuilder().setIdentifier(id).build();
+        Iterator<LookupResults> results = blockingStub.watchResults(request);
+        while (results.hasNext()) {
+            printResults(id, results.next());
+        }
+    }
+
+    private static void printResults(String id, LookupResults results) {
         List<Landmark> landmarks = results.getLandmarksList();
 
         if (landmarks.isEmpty()) {
@@ -146,22 +275,27 @@ public class Client {
         float threshold = scanner.nextFloat();
         scanner.nextLine();
 
-        ConfidenceThreshold req = ConfidenceThreshold.newBuilder()
+        PhotosQuery req = PhotosQuery.newBuilder()
                 .setConfidenceThreshold(threshold)
+                .setPageSize(PHOTOS_PAGE_SIZE)
                 .build();
 
-        GetPhotosResponse response = blockingStub.getPhotos(req);
-        List<Photo> photos = response.getPhotosList();
+        Iterator<PhotosPage> pages = blockingStub.streamPhotos(req);
+        int found = 0;
 
-        if (photos.isEmpty()) {
-            System.out.println("No photo with confidence >= " + threshold);
-        } else {
-            System.out.println("Photos found:");
-            for (Photo p : photos) {
+        while (pages.hasNext()) {
+            for (Photo p : pages.next().getPhotosList()) {
+                if (found++ == 0) {
+                    System.out.println("Photos found:");
+                }
                 System.out.printf("- %s: %s (confidence: %.2f)\n",
                         p.getPhotoName(), p.getLandmarkName(), p.getConfidence());
             }
         }
+
+        if (found == 0) {
+            System.out.println("No photo with confidence >= " + threshold);
+        }
     }
 
     private static Either<NoValidIPs, String> getNewIP() {
@@ -279,12 +413,15 @@ public class Client {
             System.out.println(" 1 - Submit photo");
             System.out.println(" 2 - Lookup results");
             System.out.println(" 3 - Get photos");
+            System.out.println(" 4 - Submit photo (resumable)");
+            System.out.println(" 5 - Wait for results");
+            System.out.println(" 6 - Lookup several results");
             System.out.println(" 99 - Exit");
             System.out.println();
             System.out.println("Choose an Option?");
             op = scanner.nextInt();
             scanner.nextLine();
-        } while (!((op >= 1 && op <= 3) || op == 99));
+        } while (!((op >= 1 && op <= 6) || op == 99));
         return op;
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package pt.isel.cn.landmarks.client.observers;
+
+import io.grpc.stub.StreamObserver;
+import landmarks.SubmitIdentifier;
+
+import java.util.concurrent.CountDownLatch;
+
+public class ResumableUploadResponseObserver implements StreamObserver<SubmitIdentifier> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile String identifier;
+    private volatile Throwable error;
+
+    @Override
+    public void onNext(SubmitIdentifier id) {
+        identifier = id.getIdentifier();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        done.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+        done.countDown();
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+}
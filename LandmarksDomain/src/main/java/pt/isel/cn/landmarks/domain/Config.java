@@ -4,6 +4,49 @@ public class Config {
     public static final String PROJECT_ID = "cn2425-t1-g06";
     public static final String PHOTOS_BUCKET = "landmarks-photos";
     public static final String METADATA_COLLECTION = "landmarks-metadata";
+    public static final String PHOTO_INDEX_COLLECTION = "landmarks-photo-index";
     public static final String SUBSCRIPTION_NAME = "landmarks-subscription";
     public static final String API_KEY = System.getenv("GOOGLE_MAPS_API_KEY");
+
+    /**
+     * Reads a string setting from the environment.
+     *
+     * @param name The name of the environment variable.
+     * @param defaultValue The value to use when the variable is not set.
+     * @return The value of the variable, or the default value.
+     */
+    public static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Reads an integer setting from the environment.
+     *
+     * @param name The name of the environment variable.
+     * @param defaultValue The value to use when the variable is not set or is not a valid integer.
+     * @return The value of the variable, or the default value.
+     */
+    public static int getEnvInt(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(getEnv(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a long setting from the environment.
+     *
+     * @param name The name of the environment variable.
+     * @param defaultValue The value to use when the variable is not set or is not a valid long.
+     * @return The value of the variable, or the default value.
+     */
+    public static long getEnvLong(String name, long defaultValue) {
+        try {
+            return Long.parseLong(getEnv(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
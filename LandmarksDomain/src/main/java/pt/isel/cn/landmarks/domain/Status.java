@@ -7,4 +7,10 @@ public enum Status {
     SUCCESS,
     FAILURE,
     IN_PROGRESS,
+
+    /**
+     * The analysis failed every attempt with a transient error. It reads as a
+     * failure, but it is processed again if its request is delivered again.
+     */
+    DEAD_LETTERED,
 }
@@ -1,36 +1,128 @@
 package pt.isel.cn.landmarks.server;
 
+import com.google.cloud.WriteChannel;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import landmarks.*;
 import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.domain.Either;
 import pt.isel.cn.landmarks.domain.LandmarkMetadata;
 import pt.isel.cn.landmarks.server.error.LookupError;
 import pt.isel.cn.landmarks.server.error.LookupErrorType;
 import pt.isel.cn.landmarks.server.error.MapsError;
 import pt.isel.cn.landmarks.server.error.PhotosByConfidenceError;
+import pt.isel.cn.landmarks.server.observers.PhotoPagesSender;
 import pt.isel.cn.landmarks.server.observers.PhotoSubmitStreamObserver;
+import pt.isel.cn.landmarks.server.observers.ResumableUploadStreamObserver;
 import pt.isel.cn.landmarks.server.services.MapsService;
 import pt.isel.cn.landmarks.server.services.Service;
+import pt.isel.cn.landmarks.server.upload.ResumableUpload;
+import pt.isel.cn.landmarks.server.upload.UploadContext;
+import pt.isel.cn.landmarks.server.upload.UploadSessionRegistry;
+import pt.isel.cn.landmarks.server.watch.ResultsWatch;
+import java.time.Duration;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBase {
     private final Service service;
     private final MapsService mapsService;
+    private final UploadContext uploads;
+    private final UploadSessionRegistry uploadSessions;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_LOOKUP = 1000;
+    private static final Duration WATCH_TIMEOUT = Duration.ofSeconds(Config.getEnvLong("WATCH_RESULTS_TIMEOUT_SECONDS", 300));
     private static final Logger logger = Logger.getLogger(LandmarksServer.class.getName());
 
-    public LandmarksServer(Service service, MapsService mapsService) {
+    public LandmarksServer(Service service, MapsService mapsService, UploadContext uploads, UploadSessionRegistry uploadSessions) {
         this.service = service;
         this.mapsService = mapsService;
+        this.uploads = uploads;
+        this.uploadSessions = uploadSessions;
     }
 
     @Override
     public StreamObserver<SubmitPhotoRequest> submitPhoto(StreamObserver<SubmitIdentifier> responseObserver) {
-        return new PhotoSubmitStreamObserver(responseObserver, service);
+        ServerCallStreamObserver<SubmitIdentifier> call = (ServerCallStreamObserver<SubmitIdentifier>) responseObserver;
+        call.disableAutoRequest();
+        return new PhotoSubmitStreamObserver(call, service, uploads);
+    }
+
+    @Override
+    public void checkPhoto(ImageMetadata request, StreamObserver<PhotoStatus> responseObserver) {
+        String hash = request.getHash().trim();
+        logger.info("Checking if photo " + hash + " is already stored");
+
+        if (hash.isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Photo hash must not be empty").asException());
+            return;
+        }
+
+        service.photoExistsAsync(hash)
+                .thenAccept(exists -> {
+                    responseObserver.onNext(PhotoStatus.newBuilder()
+                            .setExists(exists)
+                            .build());
+                    responseObserver.onCompleted();
+                })
+                .exceptionally(error -> failCall(responseObserver, "checking photo " + hash, error));
+    }
+
+    @Override
+    public void startUpload(ImageMetadata request, StreamObserver<UploadStatus> responseObserver) {
+        String hash = request.getHash().trim();
+        logger.info("Starting resumable upload of photo " + hash);
+
+        if (hash.isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Photo hash must not be empty").asException());
+            return;
+        }
+
+        WriteChannel writer = service.getPhotoWriter(hash, request.getName());
+        byte[] state = writer == null ? null : service.capturePhotoWriter(writer);
+        if (state == null) {
+            responseObserver.onError(Status.INTERNAL.withDescription("Could not start upload").asException());
+            return;
+        }
+
+        ResumableUpload upload = uploadSessions.create(hash, request.getName(), state);
+        responseObserver.onNext(UploadStatus.newBuilder()
+                .setSessionId(upload.sessionId())
+                .setCommittedOffset(upload.committedOffset())
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void queryUpload(UploadSession request, StreamObserver<UploadStatus> responseObserver) {
+        ResumableUpload upload = uploadSessions.get(request.getSessionId());
+
+        if (upload == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown upload session").asException());
+            return;
+        }
+
+        responseObserver.onNext(UploadStatus.newBuilder()
+                .setSessionId(upload.sessionId())
+                .setCommittedOffset(upload.committedOffset())
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<UploadChunk> resumeUpload(StreamObserver<SubmitIdentifier> responseObserver) {
+        ServerCallStreamObserver<SubmitIdentifier> call = (ServerCallStreamObserver<SubmitIdentifier>) responseObserver;
+        call.disableAutoRequest();
+        return new ResumableUploadStreamObserver(call, service, uploadSessions, uploads);
     }
 
     @Override
@@ -38,8 +130,123 @@ public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBa
         String requestId = request.getIdentifier().trim();
         logger.info("Looking up results for " + requestId);
 
-        Either<LookupErrorType, AnalysisMetadata> result = service.lookupResults(requestId);
+        service.lookupResults(requestId)
+                .thenAccept(result -> sendLookupResult(result, responseObserver))
+                .exceptionally(error -> failCall(responseObserver, "looking up results for " + requestId, error));
+    }
+
+    @Override
+    public void watchResults(SubmitIdentifier request, StreamObserver<LookupResults> responseObserver) {
+        String requestId = request.getIdentifier().trim();
+        logger.info("Watching results for " + requestId);
+
+        ServerCallStreamObserver<LookupResults> call = (ServerCallStreamObserver<LookupResults>) responseObserver;
+        // The cancel handler can only be set before this method returns, while the watch starts later.
+        AtomicReference<ResultsWatch> watchRef = new AtomicReference<>();
+        call.setOnCancelHandler(() -> {
+            ResultsWatch watch = watchRef.get();
+            if (watch != null) {
+                watch.close();
+            }
+        });
+
+        service.lookupResults(requestId)
+                .thenAccept(result -> {
+                    if (result.isRight() || result.getLeft() != LookupErrorType.PENDING) {
+                        sendLookupResult(result, call);
+                        return;
+                    }
+                    awaitResults(requestId, call, watchRef);
+                })
+                .exceptionally(error -> failCall(call, "watching results for " + requestId, error));
+    }
+
+    private void awaitResults(String requestId, ServerCallStreamObserver<LookupResults> call, AtomicReference<ResultsWatch> watchRef) {
+        ResultsWatch watch = service.watchResults(requestId);
+        watchRef.set(watch);
+        if (call.isCancelled()) {
+            watch.close();
+            return;
+        }
+
+        watch.result()
+                .orTimeout(WATCH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((metadata, error) -> {
+                    watch.close();
+                    if (call.isCancelled()) {
+                        return;
+                    }
+                    if (error instanceof TimeoutException) {
+                        call.onError(Status.DEADLINE_EXCEEDED
+                                .withDescription(LookupError.getMessageFor(LookupErrorType.PENDING))
+                                .asException());
+                        return;
+                    }
+                    if (error != null) {
+                        logger.severe("Error watching results for " + requestId + ": " + error.getMessage());
+                        call.onError(Status.UNAVAILABLE
+                                .withDescription("Error watching results, try again")
+                                .asException());
+                        return;
+                    }
+                    sendLookupResult(Service.toLookupResult(metadata), call);
+                });
+    }
+
+    @Override
+    public void lookupResultsBatch(SubmitIdentifiers request, StreamObserver<BatchLookupResults> responseObserver) {
+        List<String> requestIds = request.getIdentifiersList().stream()
+                .map(identifier -> identifier.getIdentifier().trim())
+                .distinct()
+                .toList();
+        logger.info("Looking up results for " + requestIds.size() + " requests");
+
+        if (requestIds.size() > MAX_BATCH_LOOKUP) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("At most " + MAX_BATCH_LOOKUP + " requests can be looked up at once")
+                    .asException());
+            return;
+        }
+
+        service.lookupResultsBatch(requestIds)
+                .thenCompose(results -> {
+                    List<CompletableFuture<BatchLookupResult>> entries = results.entrySet().stream()
+                            .map(entry -> toBatchLookupResult(entry.getKey(), entry.getValue(), request.getIncludeMaps()))
+                            .toList();
+                    return CompletableFuture.allOf(entries.toArray(CompletableFuture[]::new))
+                            .thenApply(ignored -> BatchLookupResults.newBuilder()
+                                    .addAllResults(entries.stream().map(CompletableFuture::join).toList())
+                                    .build());
+                })
+                .thenAccept(response -> {
+                    responseObserver.onNext(response);
+                    responseObserver.onCompleted();
+                })
+                .exceptionally(error -> failCall(responseObserver, "looking up results for " + requestIds.size() + " requests", error));
+    }
+
+    private CompletableFuture<BatchLookupResult> toBatchLookupResult(String requestId, Either<LookupErrorType, AnalysisMetadata> result, boolean includeMap) {
+        BatchLookupResult.Builder builder = BatchLookupResult.newBuilder().setIdentifier(requestId);
 
+        if (result.isLeft()) {
+            LookupFailureReason reason = switch (result.getLeft()) {
+                case NOT_FOUND -> LookupFailureReason.LOOKUP_FAILURE_NOT_FOUND;
+                case PENDING -> LookupFailureReason.LOOKUP_FAILURE_PENDING;
+                case FAILED -> LookupFailureReason.LOOKUP_FAILURE_FAILED;
+                default -> LookupFailureReason.LOOKUP_FAILURE_UNKNOWN;
+            };
+            return CompletableFuture.completedFuture(builder
+                    .setFailure(LookupFailure.newBuilder()
+                            .setReason(reason)
+                            .setMessage(LookupError.getMessageFor(result.getLeft())))
+                    .build());
+        }
+
+        return buildLookupResults(result.getRight(), includeMap)
+                .thenApply(results -> builder.setResults(results).build());
+    }
+
+    private void sendLookupResult(Either<LookupErrorType, AnalysisMetadata> result, StreamObserver<LookupResults> responseObserver) {
         if (result.isLeft()) {
             String message = LookupError.getMessageFor(result.getLeft());
             Status status = switch (result.getLeft()) {
@@ -52,20 +259,31 @@ public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBa
             return;
         }
 
-        AnalysisMetadata metadata = result.getRight();
+        buildLookupResults(result.getRight(), true)
+                .thenAccept(results -> {
+                    responseObserver.onNext(results);
+                    responseObserver.onCompleted();
+                })
+                .exceptionally(error -> failCall(responseObserver, "building results", error));
+    }
+
+    /**
+     * Builds the results of a successful analysis.
+     *
+     * @param includeMap Whether to include the map around the most confident landmark.
+     * @return A future completed with the results. A map that could not be fetched is left out.
+     */
+    private CompletableFuture<LookupResults> buildLookupResults(AnalysisMetadata metadata, boolean includeMap) {
         List<LandmarkMetadata> landmarks = metadata.landmarks();
 
         if (landmarks.isEmpty()) {
-            responseObserver.onNext(LookupResults.newBuilder().build());
-            responseObserver.onCompleted();
-            return;
+            return CompletableFuture.completedFuture(LookupResults.newBuilder().build());
         }
 
-        LandmarkMetadata highestConfidenceLandmark = landmarks.stream()
-                .max(Comparator.comparingDouble(LandmarkMetadata::confidence))
-                .orElseThrow();
-
-        Either<MapsError, byte[]> mapResult = mapsService.getMap(highestConfidenceLandmark.location());
+        // The map is fetched while the landmark list is built.
+        CompletableFuture<Either<MapsError, byte[]>> mapFuture = includeMap
+                ? mapsService.getMapAsync(getHighestConfidenceLandmark(landmarks).location())
+                : null;
 
         LookupResults.Builder responseBuilder = LookupResults.newBuilder()
                 .addAllLandmarks(landmarks.stream()
@@ -77,11 +295,15 @@ public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBa
                                 .build()
                         ).toList());
 
-        mapResult.ifRight(mapBytes -> responseBuilder.setMap(ByteString.copyFrom(mapBytes)));
-        mapResult.ifLeft(error -> logger.severe("Error fetching map: " + error));
+        if (mapFuture == null) {
+            return CompletableFuture.completedFuture(responseBuilder.build());
+        }
 
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
+        return mapFuture.thenApply(mapResult -> {
+            mapResult.ifRight(mapBytes -> responseBuilder.setMap(ByteString.copyFrom(mapBytes)));
+            mapResult.ifLeft(error -> logger.severe("Error fetching map: " + error));
+            return responseBuilder.build();
+        });
     }
 
     @Override
@@ -95,8 +317,12 @@ public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBa
             return;
         }
 
-        Either<PhotosByConfidenceError, List<AnalysisMetadata>> result = service.getResultsByConfidenceThreshold(confidenceThreshold);
+        service.getResultsByConfidenceThreshold(confidenceThreshold)
+                .thenAccept(result -> sendPhotos(result, responseObserver))
+                .exceptionally(error -> failCall(responseObserver, "getting photos", error));
+    }
 
+    private void sendPhotos(Either<PhotosByConfidenceError, List<AnalysisMetadata>> result, StreamObserver<GetPhotosResponse> responseObserver) {
         if (result.isLeft()) {
             String message = result.getLeft().getMessage();
             responseObserver.onError(Status.UNKNOWN.withDescription(message).asException());
@@ -129,9 +355,47 @@ public class LandmarksServer extends LandmarksServiceGrpc.LandmarksServiceImplBa
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void streamPhotos(PhotosQuery request, StreamObserver<PhotosPage> responseObserver) {
+        double confidenceThreshold = request.getConfidenceThreshold();
+
+        logger.info("Streaming photos with confidence threshold: " + confidenceThreshold);
+
+        if (confidenceThreshold < 0 || confidenceThreshold > 1) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Confidence threshold must be between 0 and 1").asException());
+            return;
+        }
+
+        int pageSize = request.getPageSize() <= 0
+                ? DEFAULT_PAGE_SIZE
+                : Math.min(request.getPageSize(), MAX_PAGE_SIZE);
+        String cursor = request.getCursor().isEmpty() ? null : request.getCursor();
+
+        new PhotoPagesSender(
+                (ServerCallStreamObserver<PhotosPage>) responseObserver,
+                service,
+                confidenceThreshold,
+                pageSize,
+                cursor
+        ).start();
+    }
+
+    /**
+     * Fails a call whose response could not be built, so the client does not
+     * wait for its deadline.
+     *
+     * @param action What the call was doing, for the log.
+     * @return Nothing, so it can be used to recover a future.
+     */
+    private static Void failCall(StreamObserver<?> responseObserver, String action, Throwable error) {
+        logger.severe("Error " + action + ": " + error.getMessage());
+        responseObserver.onError(Status.INTERNAL.withDescription("Internal error, try again").asException());
+        return null;
+    }
+
     private LandmarkMetadata getHighestConfidenceLandmark(List<LandmarkMetadata> landmarks) {
         return landmarks.stream()
                 .max(Comparator.comparingDouble(LandmarkMetadata::confidence))
                 .orElseThrow(() -> new IllegalStateException("No landmarks found"));
     }
-}
\ No newline at end of file
+}
@@ -4,39 +4,114 @@ import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.storage.StorageOptions;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.server.executor.ExecutorSettings;
+import pt.isel.cn.landmarks.server.executor.InstrumentedExecutor;
+import pt.isel.cn.landmarks.server.index.ConfidenceIndex;
+import pt.isel.cn.landmarks.server.maps.MapCacheSettings;
+import pt.isel.cn.landmarks.server.publisher.InMemoryLandmarksPublisher;
 import pt.isel.cn.landmarks.server.publisher.LandmarksPublisher;
+import pt.isel.cn.landmarks.server.publisher.PubSubLandmarksPublisher;
+import pt.isel.cn.landmarks.server.publisher.PublisherSettings;
 import pt.isel.cn.landmarks.server.services.MapsService;
 import pt.isel.cn.landmarks.server.services.Service;
+import pt.isel.cn.landmarks.server.upload.DirectBufferPool;
+import pt.isel.cn.landmarks.server.upload.UploadBudget;
+import pt.isel.cn.landmarks.server.upload.UploadContext;
+import pt.isel.cn.landmarks.server.upload.UploadSessionRegistry;
 import pt.isel.cn.landmarks.storage.blob.BlobStorage;
 import pt.isel.cn.landmarks.storage.blob.GoogleCloudStorage;
+import pt.isel.cn.landmarks.storage.metadata.CachingMetadataStorage;
 import pt.isel.cn.landmarks.storage.metadata.FirestoreMetadataStorage;
+import pt.isel.cn.landmarks.storage.metadata.MetadataLayout;
 import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
 
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     private static final int PORT = 8000;
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        LandmarksPublisher publisher = new LandmarksPublisher();
-        MetadataStorage metadataStorage = new FirestoreMetadataStorage(FirestoreOptions.getDefaultInstance().getService());
+        LandmarksPublisher publisher = createPublisher();
+        MetadataStorage metadataStorage = CachingMetadataStorage.fromEnv(
+                new FirestoreMetadataStorage(FirestoreOptions.getDefaultInstance().getService(), MetadataLayout.fromEnv())
+        );
         BlobStorage blobStorage = new GoogleCloudStorage(StorageOptions.getDefaultInstance().getService());
-        Service service = new Service(blobStorage, metadataStorage, publisher);
+        ConfidenceIndex confidenceIndex = createConfidenceIndex(metadataStorage);
+        Service service = new Service(blobStorage, metadataStorage, publisher, confidenceIndex);
+        DirectBufferPool bufferPool = new DirectBufferPool(
+                Config.getEnvInt("UPLOAD_BUFFER_SIZE", 1024 * 1024),
+                Config.getEnvInt("UPLOAD_BUFFER_POOL_SIZE", 64)
+        );
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(Config.getEnvInt("UPLOAD_IO_THREADS", 32));
+        UploadContext uploads = new UploadContext(
+                bufferPool,
+                uploadExecutor,
+                new UploadBudget(Config.getEnvLong("UPLOAD_MAX_IN_FLIGHT_BYTES", 64L * 1024 * 1024)),
+                Config.getEnvInt("UPLOAD_WINDOW", 16)
+        );
+        UploadSessionRegistry uploadSessions = new UploadSessionRegistry(
+                Duration.ofMinutes(Config.getEnvLong("UPLOAD_SESSION_TTL_MINUTES", 60))
+        );
+
+        ExecutorSettings executorSettings = ExecutorSettings.fromEnv();
+        InstrumentedExecutor callExecutor = InstrumentedExecutor.create(executorSettings);
 
         Server server = ServerBuilder.forPort(PORT)
-                .addService(new LandmarksServer(service, new MapsService()))
+                .executor(callExecutor)
+                .addService(new LandmarksServer(service, new MapsService(MapCacheSettings.fromEnv().createCache()), uploads, uploadSessions))
                 .build()
                 .start();
 
-        System.out.println("Server started, listening on " + PORT);
+        System.out.println("Server started, listening on " + PORT + " using the " + executorSettings.model() + " executor");
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.err.println("Shutting down gRPC server");
             server.shutdown();
+            // The calls in flight still need the executors and the publisher to finish.
+            try {
+                if (!server.awaitTermination(Config.getEnvLong("SERVER_SHUTDOWN_TIMEOUT_SECONDS", 30), TimeUnit.SECONDS)) {
+                    System.err.println("Timed out waiting for the calls in flight");
+                }
+                uploadExecutor.shutdown();
+                if (!uploadExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    System.err.println("Timed out waiting for the uploads in flight");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted while waiting for the calls in flight");
+            }
+            publisher.shutdown();
+            callExecutor.shutdown();
+            if (confidenceIndex != null) {
+                confidenceIndex.close();
+            }
             System.err.println("Server shut down");
         }));
 
         server.awaitTermination();
     }
+
+    private static ConfidenceIndex createConfidenceIndex(MetadataStorage metadataStorage) {
+        if (Config.getEnv("CONFIDENCE_INDEX", "true").equals("false")) {
+            return null;
+        }
+        ConfidenceIndex confidenceIndex = new ConfidenceIndex(metadataStorage);
+        // Threshold queries use the storage until the index is loaded.
+        Thread.ofVirtual().name("confidence-index-loader").start(confidenceIndex::load);
+        return confidenceIndex;
+    }
+
+    private static LandmarksPublisher createPublisher() throws IOException {
+        PublisherSettings settings = PublisherSettings.fromEnv();
+        if (Config.getEnv("LANDMARKS_PUBLISHER", "pubsub").equals("memory")) {
+            return new InMemoryLandmarksPublisher(settings);
+        }
+        return new PubSubLandmarksPublisher(settings);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package pt.isel.cn.landmarks.server.error;
 
-sealed public class Error permits LookupError, MapsError, PhotoSubmitError, PhotosByConfidenceError, PublishError {
+sealed public class Error permits InvalidCursorError, LookupError, MapsError, PhotoSubmitError, PhotosByConfidenceError, PublishError {
 
     private final String message;
 
@@ -0,0 +1,7 @@
+package pt.isel.cn.landmarks.server.error;
+
+public final class InvalidCursorError extends Error {
+    public InvalidCursorError() {
+        super("The page cursor is not valid");
+    }
+}
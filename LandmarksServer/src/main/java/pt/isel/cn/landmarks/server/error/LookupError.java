@@ -22,7 +22,7 @@ public final class LookupError extends Error {
         if (metadata == null) return LookupErrorType.NOT_FOUND;
         return switch (metadata.status()) {
             case Status.IN_PROGRESS -> LookupErrorType.PENDING;
-            case Status.FAILURE -> LookupErrorType.FAILED;
+            case Status.FAILURE, Status.DEAD_LETTERED -> LookupErrorType.FAILED;
             default -> LookupErrorType.UNKNOWN;
         };
     }
@@ -0,0 +1,18 @@
+package pt.isel.cn.landmarks.server.executor;
+
+/**
+ * The execution model used to run the gRPC call handlers.
+ */
+public enum ExecutorModel {
+    /**
+     * Each call handler runs on a new virtual thread, so blocking storage
+     * calls park the virtual thread instead of holding a platform thread.
+     */
+    VIRTUAL,
+
+    /**
+     * Call handlers run on a fixed number of platform threads, and the
+     * remaining ones wait in a queue.
+     */
+    BOUNDED
+}
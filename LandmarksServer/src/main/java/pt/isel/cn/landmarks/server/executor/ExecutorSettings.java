@@ -0,0 +1,39 @@
+package pt.isel.cn.landmarks.server.executor;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.time.Duration;
+
+/**
+ * Settings of the executor that runs the gRPC call handlers.
+ *
+ * @param model The execution model.
+ * @param poolSize The number of platform threads of the {@link ExecutorModel#BOUNDED} model.
+ * @param metricsInterval The interval between executor metrics reports, or zero to disable them.
+ */
+public record ExecutorSettings(
+        ExecutorModel model,
+        int poolSize,
+        Duration metricsInterval
+) {
+    /**
+     * Reads the executor settings from the environment, defaulting to virtual threads.
+     *
+     * @return The executor settings.
+     */
+    public static ExecutorSettings fromEnv() {
+        return new ExecutorSettings(
+                parseModel(Config.getEnv("SERVER_EXECUTOR", "virtual")),
+                Config.getEnvInt("SERVER_EXECUTOR_THREADS", Runtime.getRuntime().availableProcessors() * 8),
+                Duration.ofSeconds(Config.getEnvLong("SERVER_EXECUTOR_METRICS_SECONDS", 60))
+        );
+    }
+
+    private static ExecutorModel parseModel(String value) {
+        try {
+            return ExecutorModel.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ExecutorModel.VIRTUAL;
+        }
+    }
+}
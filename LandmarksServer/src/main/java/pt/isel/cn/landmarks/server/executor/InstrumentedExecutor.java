@@ -0,0 +1,178 @@
+package pt.isel.cn.landmarks.server.executor;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Executor for the gRPC call handlers that keeps track of how it is used.
+ * <p>
+ * Besides the number of threads, it measures how many tasks are waiting to
+ * start and how long tasks run. Since the handlers block on storage and Maps
+ * calls, the task run time is a close estimate of the time spent blocked.
+ */
+public class InstrumentedExecutor implements Executor {
+    private final ExecutorModel model;
+    private final ExecutorService delegate;
+    private final AtomicInteger threadsStarted;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+    private long lastCompleted = 0;
+    private long lastRunNanos = 0;
+    private ScheduledExecutorService reporter;
+
+    private static final Logger logger = Logger.getLogger(InstrumentedExecutor.class.getName());
+
+    /**
+     * Snapshot of the executor metrics.
+     *
+     * @param model The execution model.
+     * @param threadsStarted The number of threads started so far.
+     * @param activeTasks The number of tasks currently running.
+     * @param peakActiveTasks The highest number of tasks running at once since the last snapshot.
+     * @param queuedTasks The number of tasks waiting for a thread.
+     * @param completedTasks The number of tasks completed so far.
+     * @param averageRunTime The average run time of the tasks completed since the last snapshot.
+     * @param maxRunTime The longest run time of the tasks completed since the last snapshot.
+     */
+    public record Stats(
+            ExecutorModel model,
+            long threadsStarted,
+            int activeTasks,
+            int peakActiveTasks,
+            long queuedTasks,
+            long completedTasks,
+            Duration averageRunTime,
+            Duration maxRunTime
+    ) {}
+
+    private InstrumentedExecutor(ExecutorModel model, ExecutorService delegate, AtomicInteger threadsStarted) {
+        this.model = model;
+        this.delegate = delegate;
+        this.threadsStarted = threadsStarted;
+    }
+
+    /**
+     * Creates the executor described by the given settings and starts
+     * reporting its metrics, if enabled.
+     *
+     * @param settings The executor settings.
+     * @return The executor.
+     */
+    public static InstrumentedExecutor create(ExecutorSettings settings) {
+        AtomicInteger threadsStarted = new AtomicInteger();
+        InstrumentedExecutor executor = switch (settings.model()) {
+            case VIRTUAL -> new InstrumentedExecutor(
+                    ExecutorModel.VIRTUAL,
+                    Executors.newThreadPerTaskExecutor(countingFactory(Thread.ofVirtual().name("grpc-virtual-", 0).factory(), threadsStarted)),
+                    threadsStarted
+            );
+            case BOUNDED -> new InstrumentedExecutor(
+                    ExecutorModel.BOUNDED,
+                    new ThreadPoolExecutor(
+                            settings.poolSize(),
+                            settings.poolSize(),
+                            60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(),
+                            countingFactory(Thread.ofPlatform().name("grpc-worker-", 0).daemon(true).factory(), threadsStarted)
+                    ),
+                    threadsStarted
+            );
+        };
+        if (!settings.metricsInterval().isZero()) {
+            executor.startReporting(settings.metricsInterval());
+        }
+        return executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitted.incrementAndGet();
+        delegate.execute(() -> {
+            started.incrementAndGet();
+            peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            long start = System.nanoTime();
+            try {
+                command.run();
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                runNanos.addAndGet(elapsed);
+                maxRunNanos.accumulateAndGet(elapsed, Math::max);
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Takes a snapshot of the metrics. The peak and run time metrics restart
+     * with every snapshot.
+     *
+     * @return The metrics.
+     */
+    public synchronized Stats getStats() {
+        long completedNow = completed.get();
+        long runNanosNow = runNanos.get();
+        long completedSince = completedNow - lastCompleted;
+        long averageNanos = completedSince == 0 ? 0 : (runNanosNow - lastRunNanos) / completedSince;
+        lastCompleted = completedNow;
+        lastRunNanos = runNanosNow;
+
+        return new Stats(
+                model,
+                threadsStarted.get(),
+                active.get(),
+                peakActive.getAndSet(active.get()),
+                submitted.get() - started.get(),
+                completedNow,
+                Duration.ofNanos(averageNanos),
+                Duration.ofNanos(maxRunNanos.getAndSet(0))
+        );
+    }
+
+    /**
+     * Stops accepting tasks and waits for the running ones to finish.
+     */
+    public void shutdown() {
+        if (reporter != null) {
+            reporter.shutdown();
+        }
+        delegate.shutdown();
+        try {
+            delegate.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startReporting(Duration interval) {
+        reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("executor-metrics").daemon(true).factory());
+        reporter.scheduleAtFixedRate(
+                () -> logger.info("Executor metrics: " + getStats()),
+                interval.toMillis(),
+                interval.toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    private static ThreadFactory countingFactory(ThreadFactory factory, AtomicInteger counter) {
+        return runnable -> {
+            counter.incrementAndGet();
+            return factory.newThread(runnable);
+        };
+    }
+}
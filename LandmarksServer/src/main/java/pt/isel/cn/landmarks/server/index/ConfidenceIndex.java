@@ -0,0 +1,170 @@
+package pt.isel.cn.landmarks.server.index;
+
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.domain.Status;
+import pt.isel.cn.landmarks.storage.metadata.MetadataPage;
+import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
+import pt.isel.cn.landmarks.storage.metadata.MetadataSubscription;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * In-memory index of the successful analyses, ordered by the confidence of
+ * their most confident landmark.
+ * <p>
+ * Threshold queries become a range scan of a skip list instead of a storage
+ * query. The index is loaded from the metadata storage at startup and then
+ * kept up to date by a listener for newly finished analyses. Until loading
+ * finishes, {@link #isReady()} is false and callers should query the storage.
+ * <p>
+ * If loading or the listener fails, the index stops being ready and is
+ * loaded again after a delay, with a new listener.
+ */
+public class ConfidenceIndex {
+    /**
+     * Analyses finished this long before loading started are also reported
+     * by the listener, to cover clock differences with the storage.
+     */
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+    private static final int LOAD_PAGE_SIZE = 500;
+    private static final Duration RELOAD_DELAY = Duration.ofSeconds(5);
+
+    private record Key(double confidence, String requestId) {}
+
+    private static final Comparator<Key> ORDER = Comparator
+            .comparingDouble(Key::confidence).reversed()
+            .thenComparing(Key::requestId);
+
+    private final MetadataStorage metadataStorage;
+    private final ConcurrentSkipListMap<Key, AnalysisMetadata> byConfidence = new ConcurrentSkipListMap<>(ORDER);
+    private final Map<String, Key> keysByRequest = new HashMap<>();
+    private final ScheduledExecutorService reloader =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("confidence-index-reload").daemon(true).factory());
+    private final AtomicBoolean reloadScheduled = new AtomicBoolean(false);
+    private volatile MetadataSubscription subscription;
+    private volatile boolean ready = false;
+
+    private static final Logger logger = Logger.getLogger(ConfidenceIndex.class.getName());
+
+    public ConfidenceIndex(MetadataStorage metadataStorage) {
+        this.metadataStorage = metadataStorage;
+    }
+
+    /**
+     * Starts listening for finished analyses and loads the existing ones.
+     * <p>
+     * Blocks until the index is loaded.
+     */
+    public void load() {
+        Instant start = Instant.now();
+        subscription = metadataStorage.watchCompletedAnalyses(start.minus(CLOCK_SKEW), this::put, this::onWatchError);
+
+        String cursor = null;
+        do {
+            MetadataPage page = metadataStorage.getAnalysisMetadataPageByConfidenceThreshold(-1, LOAD_PAGE_SIZE, cursor);
+            if (page == null) {
+                logger.severe("Error loading the confidence index, threshold queries will use the storage");
+                scheduleReload();
+                return;
+            }
+            page.items().forEach(this::put);
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        ready = true;
+        logger.info("Confidence index loaded with " + size() + " analyses in " + Duration.between(start, Instant.now()).toMillis() + " ms");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void onWatchError(Throwable error) {
+        logger.severe("Confidence index listener failed, threshold queries will use the storage: " + error.getMessage());
+        ready = false;
+        scheduleReload();
+    }
+
+    /**
+     * Replaces the listener and loads the index again after a delay.
+     * Analyses already in the index are kept and overwritten by the reload.
+     */
+    private void scheduleReload() {
+        if (!reloadScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        reloader.schedule(() -> {
+            reloadScheduled.set(false);
+            ready = false;
+            cancelSubscription();
+            try {
+                load();
+            } catch (Exception e) {
+                logger.severe("Error reloading the confidence index: " + e.getMessage());
+                scheduleReload();
+            }
+        }, RELOAD_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelSubscription() {
+        MetadataSubscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Adds or replaces an analysis. Analyses that did not succeed or have no landmarks are removed.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param metadata The analysis, where the first landmark is the most confident one.
+     */
+    public synchronized void put(String requestId, AnalysisMetadata metadata) {
+        Key previous = keysByRequest.remove(requestId);
+        if (previous != null) {
+            byConfidence.remove(previous);
+        }
+
+        if (metadata.status() != Status.SUCCESS || metadata.landmarks().isEmpty()) {
+            return;
+        }
+
+        Key key = new Key(metadata.landmarks().getFirst().confidence(), requestId);
+        keysByRequest.put(requestId, key);
+        byConfidence.put(key, metadata);
+    }
+
+    /**
+     * Retrieves the analyses above a confidence threshold, most confident first.
+     *
+     * @param confidenceThreshold The confidence threshold.
+     * @return The analyses, each with only its most confident landmark.
+     */
+    public List<AnalysisMetadata> above(double confidenceThreshold) {
+        // Every key with a higher confidence sorts before the threshold with the smallest request ID.
+        ConcurrentNavigableMap<Key, AnalysisMetadata> range = byConfidence.headMap(new Key(confidenceThreshold, ""), false);
+        return new ArrayList<>(range.values());
+    }
+
+    public int size() {
+        return byConfidence.size();
+    }
+
+    public void close() {
+        reloader.shutdownNow();
+        cancelSubscription();
+    }
+}
@@ -0,0 +1,67 @@
+package pt.isel.cn.landmarks.server.maps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Cache of map images stored as files in a local directory.
+ * <p>
+ * It survives server restarts, so a new instance does not have to fetch the
+ * popular maps again. An image expires once its file is older than the TTL.
+ */
+public class DiskMapCache implements MapCache {
+    private final Path directory;
+    private final Duration ttl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final Logger logger = Logger.getLogger(DiskMapCache.class.getName());
+
+    public DiskMapCache(Path directory, Duration ttl) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.ttl = ttl;
+    }
+
+    @Override
+    public byte[] get(MapKey key) {
+        Path file = directory.resolve(key.fileName());
+        try {
+            if (Files.exists(file)) {
+                Instant storedAt = Files.getLastModifiedTime(file).toInstant();
+                if (storedAt.plus(ttl).isAfter(Instant.now())) {
+                    byte[] image = Files.readAllBytes(file);
+                    hits.incrementAndGet();
+                    return image;
+                }
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warning("Error reading cached map " + file + ": " + e.getMessage());
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void put(MapKey key, byte[] image) {
+        Path file = directory.resolve(key.fileName());
+        try {
+            Path temporary = Files.createTempFile(directory, "map", ".tmp");
+            Files.write(temporary, image);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Error caching map " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get());
+    }
+}
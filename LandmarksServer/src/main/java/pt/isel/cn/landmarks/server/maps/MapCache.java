@@ -0,0 +1,37 @@
+package pt.isel.cn.landmarks.server.maps;
+
+/**
+ * A cache of static map images.
+ */
+public interface MapCache {
+    /**
+     * Hit and miss counters of a cache.
+     *
+     * @param hits The number of lookups that found a fresh image.
+     * @param misses The number of lookups that did not.
+     */
+    record Stats(long hits, long misses) {
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    /**
+     * Retrieves a map image.
+     *
+     * @param key The key of the map.
+     * @return The image, or null if it is not cached or has expired.
+     */
+    byte[] get(MapKey key);
+
+    /**
+     * Stores a map image.
+     *
+     * @param key The key of the map.
+     * @param image The image.
+     */
+    void put(MapKey key, byte[] image);
+
+    Stats getStats();
+}
@@ -0,0 +1,47 @@
+package pt.isel.cn.landmarks.server.maps;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.logging.Logger;
+
+/**
+ * Settings of the map image cache.
+ *
+ * @param memoryBytes The maximum size of the images kept in memory.
+ * @param directory The directory of the disk tier, or null to keep images only in memory.
+ * @param ttl How long an image is served from the cache.
+ */
+public record MapCacheSettings(long memoryBytes, Path directory, Duration ttl) {
+    private static final Logger logger = Logger.getLogger(MapCacheSettings.class.getName());
+
+    public static MapCacheSettings fromEnv() {
+        String directory = Config.getEnv("MAPS_CACHE_DIR", null);
+        return new MapCacheSettings(
+                Config.getEnvLong("MAPS_CACHE_BYTES", 32 * 1024 * 1024),
+                directory == null ? null : Path.of(directory),
+                Duration.ofHours(Config.getEnvLong("MAPS_CACHE_TTL_HOURS", 24))
+        );
+    }
+
+    /**
+     * Creates the cache described by the settings. If the disk tier cannot be
+     * used, the cache falls back to memory only.
+     *
+     * @return The map cache.
+     */
+    public MapCache createCache() {
+        MapCache memory = new MemoryMapCache(memoryBytes, ttl);
+        if (directory == null) {
+            return memory;
+        }
+        try {
+            return new TieredMapCache(memory, new DiskMapCache(directory, ttl));
+        } catch (IOException e) {
+            logger.severe("Error creating map cache directory " + directory + ": " + e.getMessage());
+            return memory;
+        }
+    }
+}
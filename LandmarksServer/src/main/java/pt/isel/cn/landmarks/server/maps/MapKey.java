@@ -0,0 +1,52 @@
+package pt.isel.cn.landmarks.server.maps;
+
+import pt.isel.cn.landmarks.domain.Location;
+
+/**
+ * Identifies a static map image.
+ * <p>
+ * The center is quantized to the size of one map pixel at the zoom level in
+ * use, so nearby detections of the same landmark share the same image. The
+ * map is requested for the quantized center, which is at most half a pixel
+ * away from the original location.
+ *
+ * @param zoom The zoom level of the map.
+ * @param size The size of the map image, e.g. "600x300".
+ * @param latitudeCell The quantized latitude.
+ * @param longitudeCell The quantized longitude.
+ */
+public record MapKey(int zoom, String size, long latitudeCell, long longitudeCell) {
+    private static final int TILE_SIZE = 256;
+
+    public static MapKey of(Location location, int zoom, String size) {
+        double step = cellSize(zoom);
+        return new MapKey(
+                zoom,
+                size,
+                Math.round(location.latitude() / step),
+                Math.round(location.longitude() / step)
+        );
+    }
+
+    /**
+     * @return The center of the map.
+     */
+    public Location center() {
+        double step = cellSize(zoom);
+        return new Location(latitudeCell * step, longitudeCell * step);
+    }
+
+    /**
+     * @return A name for the map that is safe to use as a file or blob name.
+     */
+    public String fileName() {
+        return "z" + zoom + "-" + size + "-" + latitudeCell + "_" + longitudeCell + ".png";
+    }
+
+    /**
+     * Degrees spanned by one pixel of a web map at the given zoom level.
+     */
+    private static double cellSize(int zoom) {
+        return 360.0 / (TILE_SIZE * Math.pow(2, zoom));
+    }
+}
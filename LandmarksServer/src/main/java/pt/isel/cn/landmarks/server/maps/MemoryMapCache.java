@@ -0,0 +1,73 @@
+package pt.isel.cn.landmarks.server.maps;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory LRU cache of map images, bounded by the total size of the images.
+ */
+public class MemoryMapCache implements MapCache {
+    private record Entry(byte[] image, Instant expiresAt) {}
+
+    private final long maxBytes;
+    private final Duration ttl;
+    private final LinkedHashMap<MapKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long bytes = 0;
+
+    public MemoryMapCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public byte[] get(MapKey key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt().isAfter(Instant.now())) {
+                hits.incrementAndGet();
+                return entry.image();
+            }
+            if (entry != null) {
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void put(MapKey key, byte[] image) {
+        if (image.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, new Entry(image, Instant.now().plus(ttl)));
+            bytes += image.length;
+
+            Iterator<Map.Entry<MapKey, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().image().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get());
+    }
+
+    private void remove(MapKey key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.image().length;
+        }
+    }
+}
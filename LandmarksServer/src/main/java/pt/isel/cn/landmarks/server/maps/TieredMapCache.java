@@ -0,0 +1,46 @@
+package pt.isel.cn.landmarks.server.maps;
+
+/**
+ * Combines a fast cache with a larger, slower one.
+ * <p>
+ * Lookups try the first tier and then the second one, copying images found in
+ * the second tier into the first. New images are stored in both tiers.
+ */
+public class TieredMapCache implements MapCache {
+    private final MapCache first;
+    private final MapCache second;
+
+    public TieredMapCache(MapCache first, MapCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public byte[] get(MapKey key) {
+        byte[] image = first.get(key);
+        if (image != null) {
+            return image;
+        }
+        image = second.get(key);
+        if (image != null) {
+            first.put(key, image);
+        }
+        return image;
+    }
+
+    @Override
+    public void put(MapKey key, byte[] image) {
+        first.put(key, image);
+        second.put(key, image);
+    }
+
+    /**
+     * @return The combined counters, where a miss means neither tier had the image.
+     */
+    @Override
+    public Stats getStats() {
+        Stats firstStats = first.getStats();
+        Stats secondStats = second.getStats();
+        return new Stats(firstStats.hits() + secondStats.hits(), secondStats.misses());
+    }
+}
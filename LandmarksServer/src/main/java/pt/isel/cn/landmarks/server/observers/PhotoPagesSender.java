@@ -0,0 +1,138 @@
+package pt.isel.cn.landmarks.server.observers;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import landmarks.Photo;
+import landmarks.PhotosPage;
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.domain.Either;
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+import pt.isel.cn.landmarks.server.error.Error;
+import pt.isel.cn.landmarks.server.error.InvalidCursorError;
+import pt.isel.cn.landmarks.server.services.Service;
+import pt.isel.cn.landmarks.storage.metadata.MetadataPage;
+
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+/**
+ * Streams the photos above a confidence threshold, one page at a time.
+ * <p>
+ * A page is only read from the storage while the call is ready to send it,
+ * so a slow client holds at most one page in memory. Each page carries the
+ * cursor of the next one, which a client can use to resume the listing.
+ * <p>
+ * Pages are read asynchronously, so no thread waits on the storage. At most
+ * one read is in flight, and the next one starts when it completes or when
+ * the call becomes ready again.
+ */
+public class PhotoPagesSender implements Runnable {
+    private final ServerCallStreamObserver<PhotosPage> call;
+    private final Service service;
+    private final double confidenceThreshold;
+    private final int pageSize;
+
+    private String cursor;
+    private boolean done = false;
+    private boolean fetching = false;
+
+    private static final Logger logger = Logger.getLogger(PhotoPagesSender.class.getName());
+
+    public PhotoPagesSender(
+            ServerCallStreamObserver<PhotosPage> call,
+            Service service,
+            double confidenceThreshold,
+            int pageSize,
+            String cursor
+    ) {
+        this.call = call;
+        this.service = service;
+        this.confidenceThreshold = confidenceThreshold;
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Starts sending pages. Must be called by the RPC method, before it returns.
+     */
+    public void start() {
+        call.setOnCancelHandler(this::cancel);
+        call.setOnReadyHandler(this);
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        if (done || fetching || !call.isReady()) {
+            return;
+        }
+        fetching = true;
+        service.getResultsPageByConfidenceThreshold(confidenceThreshold, pageSize, cursor)
+                .thenAccept(this::onPage)
+                .exceptionally(this::onFailure);
+    }
+
+    private void onPage(Either<Error, MetadataPage> result) {
+        synchronized (this) {
+            fetching = false;
+            if (done) {
+                return;
+            }
+
+            if (result.isLeft()) {
+                done = true;
+                Status status = result.getLeft() instanceof InvalidCursorError ? Status.INVALID_ARGUMENT : Status.UNKNOWN;
+                call.onError(status.withDescription(result.getLeft().getMessage()).asException());
+                return;
+            }
+
+            MetadataPage page = result.getRight();
+            cursor = page.nextCursor();
+
+            // Pages left empty by the status filter are skipped, except the last one.
+            if (!page.items().isEmpty() || cursor == null) {
+                call.onNext(PhotosPage.newBuilder()
+                        .addAllPhotos(page.items().values().stream().map(PhotoPagesSender::toPhoto).toList())
+                        .setNextCursor(cursor == null ? "" : cursor)
+                        .build());
+            }
+
+            if (cursor == null) {
+                done = true;
+                call.onCompleted();
+                return;
+            }
+        }
+        run();
+    }
+
+    /**
+     * Fails the call if a page could not be read or sent.
+     */
+    private synchronized Void onFailure(Throwable error) {
+        fetching = false;
+        if (done) {
+            return null;
+        }
+        done = true;
+        logger.severe("Error streaming photos at cursor " + cursor + ": " + error.getMessage());
+        call.onError(Status.INTERNAL.withDescription("Internal error, try again").asException());
+        return null;
+    }
+
+    private synchronized void cancel() {
+        logger.info("Photo listing cancelled at cursor " + cursor);
+        done = true;
+    }
+
+    private static Photo toPhoto(AnalysisMetadata metadata) {
+        LandmarkMetadata highestLandmark = metadata.landmarks().stream()
+                .max(Comparator.comparingDouble(LandmarkMetadata::confidence))
+                .orElseThrow(() -> new IllegalStateException("No landmarks found"));
+        return Photo.newBuilder()
+                .setPhotoName(metadata.photoName())
+                .setLandmarkName(highestLandmark.name())
+                .setConfidence(highestLandmark.confidence())
+                .build();
+    }
+}
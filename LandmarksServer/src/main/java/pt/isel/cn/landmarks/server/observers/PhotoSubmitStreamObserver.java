@@ -1,78 +1,122 @@
 package pt.isel.cn.landmarks.server.observers;
 
 import com.google.cloud.WriteChannel;
+import com.google.protobuf.ByteString;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import landmarks.SubmitIdentifier;
 import landmarks.SubmitPhotoRequest;
 import pt.isel.cn.landmarks.domain.Either;
 import pt.isel.cn.landmarks.server.error.PhotoSubmitError;
 import pt.isel.cn.landmarks.server.services.Service;
+import pt.isel.cn.landmarks.server.upload.CoalescingWriter;
+import pt.isel.cn.landmarks.server.upload.InboundFlowControl;
+import pt.isel.cn.landmarks.server.upload.PhotoHashes;
+import pt.isel.cn.landmarks.server.upload.UploadContext;
+import pt.isel.cn.landmarks.server.upload.WriteStage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+/**
+ * Receives a photo upload.
+ * <p>
+ * Chunks are hashed on the gRPC thread as they arrive and handed to a
+ * {@link WriteStage}, which writes them to the blob storage on the I/O
+ * executor. New chunks are only requested from the client while the
+ * upload's window and the server-wide upload budget have room.
+ */
 public class PhotoSubmitStreamObserver implements StreamObserver<SubmitPhotoRequest> {
-    private final StreamObserver<SubmitIdentifier> responseObserver;
+    private final ServerCallStreamObserver<SubmitIdentifier> responseObserver;
     private final MessageDigest messageDigest;
     private final Service service;
+    private final UploadContext uploads;
+    private final InboundFlowControl flowControl;
+    private final WriteStage writeStage;
+    private final AtomicBoolean responded = new AtomicBoolean(false);
 
     private boolean metadataReceived = false;
-    private WriteChannel writer;
+    private long bytesReceived = 0;
     private String clientHash;
     private String photoName;
 
+    // Only accessed by write stage tasks.
+    private boolean photoStored = false;
+    private CoalescingWriter writer;
+
     private static final Logger logger = Logger.getLogger(PhotoSubmitStreamObserver.class.getName());
 
-    public PhotoSubmitStreamObserver(StreamObserver<SubmitIdentifier> responseObserver, Service service) {
+    public PhotoSubmitStreamObserver(ServerCallStreamObserver<SubmitIdentifier> responseObserver, Service service, UploadContext uploads) {
         this.service = service;
+        this.uploads = uploads;
         this.responseObserver = responseObserver;
-        this.messageDigest = createSha256Digest();
+        this.messageDigest = PhotoHashes.createSha256Digest();
+        this.flowControl = new InboundFlowControl(responseObserver, uploads.window(), uploads.budget());
+        this.writeStage = new WriteStage(uploads.ioExecutor(), uploads.budget(), this::onWriteFailure);
+        flowControl.start();
     }
 
     @Override
     public void onNext(SubmitPhotoRequest chunk) {
-        try {
-            if (chunk.hasMetadata()) {
-                handleMetadata(chunk);
-            } else {
-                handlePhotoChunk(chunk);
-            }
-        } catch (IOException e) {
-            logger.severe("Error writing photo bytes: " + e.getMessage());
-            responseObserver.onError(e);
+        if (chunk.hasMetadata()) {
+            handleMetadata(chunk);
+            flowControl.onMessageHandled();
+        } else {
+            handlePhotoChunk(chunk);
         }
     }
 
     @Override
     public void onError(Throwable throwable) {
         logger.severe("Error in stream: " + throwable.getMessage());
-        responseObserver.onError(throwable);
+        flowControl.stop();
+        writeStage.submitAlways(this::abandonWriter);
+        respondError(throwable);
     }
 
     @Override
     public void onCompleted() {
-        String photoHash = bytesToHex(messageDigest.digest());
+        flowControl.stop();
 
-        if (!photoHash.equals(clientHash)) {
-            logger.info("Hash mismatch: expected " + clientHash + ", got " + photoHash);
-            responseObserver.onError(Status.INVALID_ARGUMENT
-                    .withDescription("Hash mismatch: expected " + clientHash + ", got " + photoHash)
-                    .asException());
-            cleanup();
+        if (!metadataReceived) {
+            respondError(Status.INVALID_ARGUMENT.withDescription("Metadata not received").asException());
             return;
         }
 
-        Either<PhotoSubmitError, String> result = service.submitRequest(clientHash, photoName);
+        String photoHash = PhotoHashes.bytesToHex(messageDigest.digest());
+
+        writeStage.call(() -> finishUpload(photoHash)).whenComplete((stored, error) -> {
+            if (error != null) {
+                writeStage.submitAlways(this::abandonWriter);
+                respondError(Status.INTERNAL.withDescription("Error storing photo").asException());
+                return;
+            }
+
+            if (!stored) {
+                logger.info("Hash mismatch: expected " + clientHash + ", got " + photoHash);
+                respondError(Status.INVALID_ARGUMENT
+                        .withDescription("Hash mismatch: expected " + clientHash + ", got " + photoHash)
+                        .asException());
+                return;
+            }
 
+            service.submitRequest(clientHash, photoName).thenAccept(this::sendResponse);
+        });
+    }
+
+    private void sendResponse(Either<PhotoSubmitError, String> result) {
         if (result.isLeft()) {
             logger.severe("Error submitting photo analysis request: " + result.getLeft());
-            responseObserver.onError(Status.INTERNAL
+            respondError(Status.INTERNAL
                     .withDescription("Error submitting photo analysis request: " + result.getLeft())
                     .asException());
-            closeWriter();
+            return;
+        }
+
+        if (!responded.compareAndSet(false, true)) {
             return;
         }
 
@@ -84,62 +128,93 @@ public class PhotoSubmitStreamObserver implements StreamObserver<SubmitPhotoRequ
         responseObserver.onNext(response);
         responseObserver.onCompleted();
 
-        closeWriter();
-
         logger.info("Photo submitted successfully with ID: " + result.getRight());
     }
 
-    private void handleMetadata(SubmitPhotoRequest chunk) throws IOException {
+    private void handleMetadata(SubmitPhotoRequest chunk) {
+        if (metadataReceived) {
+            return;
+        }
         clientHash = chunk.getMetadata().getHash();
         photoName = chunk.getMetadata().getName();
-        if (!service.photoExists(clientHash)) {
-            writer = service.getPhotoWriter(clientHash);
-        }
         metadataReceived = true;
+        writeStage.submit(this::openWriter);
     }
 
-    private void handlePhotoChunk(SubmitPhotoRequest chunk) throws IOException {
+    private void handlePhotoChunk(SubmitPhotoRequest chunk) {
         if (!metadataReceived) {
-            responseObserver.onError(Status.INVALID_ARGUMENT
+            flowControl.stop();
+            respondError(Status.INVALID_ARGUMENT
                     .withDescription("Metadata not received before photo data")
                     .asException());
             return;
         }
-        byte[] data = chunk.getPhotoChunk().toByteArray();
-        messageDigest.update(data);
-        if (writer != null) {
-            writer.write(ByteBuffer.wrap(data));
+        ByteString data = chunk.getPhotoChunk();
+        bytesReceived += data.size();
+        for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+            messageDigest.update(buffer);
         }
+        writeStage.write(data.size(), () -> writeChunk(data), flowControl::onMessageHandled);
     }
 
-    private static MessageDigest createSha256Digest() {
-        try {
-            return MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
+    private void openWriter() throws IOException {
+        photoStored = service.photoExists(clientHash);
+        if (!photoStored) {
+            WriteChannel channel = service.getPhotoWriter(clientHash, photoName);
+            if (channel == null) {
+                throw new IOException("Could not open writer for photo " + clientHash);
+            }
+            writer = new CoalescingWriter(channel, uploads.bufferPool());
         }
     }
 
-    private void cleanup() {
-        service.deletePhoto(clientHash);
-        closeWriter();
+    private void writeChunk(ByteString data) throws IOException {
+        if (writer != null) {
+            writer.write(data);
+        }
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    /**
+     * Finalizes the blob once every queued chunk was written.
+     *
+     * @return False if the photo does not match the hash sent by the client.
+     */
+    private boolean finishUpload(String photoHash) throws IOException {
+        if (photoStored && bytesReceived == 0) {
+            // The client was told the photo is already stored and skipped the upload.
+            return true;
         }
-        return sb.toString();
+
+        if (!photoHash.equals(clientHash)) {
+            abandonWriter();
+            return false;
+        }
+
+        if (writer != null) {
+            CoalescingWriter finished = writer;
+            writer = null;
+            finished.close();
+        }
+        return true;
     }
 
-    private void closeWriter() {
+    private void abandonWriter() {
         if (writer != null) {
-            try {
-                writer.close();
-            } catch (IOException e) {
-                logger.severe("Error closing writer: " + e.getMessage());
-            }
+            writer.abandon();
+            writer = null;
+        }
+    }
+
+    private void onWriteFailure(Throwable throwable) {
+        logger.severe("Error writing photo bytes: " + throwable.getMessage());
+        flowControl.stop();
+        abandonWriter();
+        respondError(Status.INTERNAL.withDescription("Error writing photo bytes").asException());
+    }
+
+    private void respondError(Throwable throwable) {
+        if (responded.compareAndSet(false, true)) {
+            responseObserver.onError(throwable);
         }
     }
 }
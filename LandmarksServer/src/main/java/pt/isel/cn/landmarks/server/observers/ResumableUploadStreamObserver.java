@@ -0,0 +1,284 @@
+package pt.isel.cn.landmarks.server.observers;
+
+import com.google.cloud.WriteChannel;
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import landmarks.SubmitIdentifier;
+import landmarks.UploadChunk;
+import pt.isel.cn.landmarks.domain.Either;
+import pt.isel.cn.landmarks.server.error.PhotoSubmitError;
+import pt.isel.cn.landmarks.server.services.Service;
+import pt.isel.cn.landmarks.server.upload.CoalescingWriter;
+import pt.isel.cn.landmarks.server.upload.InboundFlowControl;
+import pt.isel.cn.landmarks.server.upload.PhotoHashes;
+import pt.isel.cn.landmarks.server.upload.ResumableUpload;
+import pt.isel.cn.landmarks.server.upload.UploadContext;
+import pt.isel.cn.landmarks.server.upload.UploadSessionRegistry;
+import pt.isel.cn.landmarks.server.upload.WriteStage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Receives the chunks of a resumable upload started with {@code startUpload}.
+ * <p>
+ * Every chunk carries its offset in the photo. Bytes the session already
+ * committed are skipped, so a client can resend from any offset up to the
+ * committed one. The session is checkpointed periodically and whenever the
+ * stream fails, which lets a later stream resume from the last received byte.
+ * Completing the stream finalizes the blob and submits the analysis request.
+ * <p>
+ * Offsets and hashing are handled on the gRPC thread, while the blob writes
+ * and checkpoints run in order on a {@link WriteStage}.
+ */
+public class ResumableUploadStreamObserver implements StreamObserver<UploadChunk> {
+    private final ServerCallStreamObserver<SubmitIdentifier> responseObserver;
+    private final Service service;
+    private final UploadSessionRegistry sessions;
+    private final UploadContext uploads;
+    private final InboundFlowControl flowControl;
+    private final WriteStage writeStage;
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+
+    private ResumableUpload session;
+    private MessageDigest messageDigest;
+    private long position;
+    private long lastCheckpoint;
+
+    // Only accessed by write stage tasks.
+    private CoalescingWriter writer;
+
+    private static final Logger logger = Logger.getLogger(ResumableUploadStreamObserver.class.getName());
+
+    public ResumableUploadStreamObserver(
+            ServerCallStreamObserver<SubmitIdentifier> responseObserver,
+            Service service,
+            UploadSessionRegistry sessions,
+            UploadContext uploads
+    ) {
+        this.responseObserver = responseObserver;
+        this.service = service;
+        this.sessions = sessions;
+        this.uploads = uploads;
+        this.flowControl = new InboundFlowControl(responseObserver, uploads.window(), uploads.budget());
+        this.writeStage = new WriteStage(uploads.ioExecutor(), uploads.budget(), this::onWriteFailure);
+        flowControl.start();
+    }
+
+    @Override
+    public void onNext(UploadChunk chunk) {
+        if (responded.get()) {
+            return;
+        }
+        if (session == null && !attach(chunk.getSessionId())) {
+            return;
+        }
+
+        if (!chunk.getSessionId().equals(session.sessionId())) {
+            fail(Status.INVALID_ARGUMENT.withDescription("All chunks must belong to the same upload session"));
+            return;
+        }
+
+        if (chunk.getOffset() > position) {
+            fail(Status.OUT_OF_RANGE.withDescription("Expected offset " + position + ", got " + chunk.getOffset()));
+            return;
+        }
+
+        ByteString data = chunk.getData();
+        long skip = position - chunk.getOffset();
+        if (skip >= data.size()) {
+            flowControl.onMessageHandled();
+            return;
+        }
+        if (skip > 0) {
+            data = data.substring((int) skip);
+        }
+
+        for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+            messageDigest.update(buffer);
+        }
+        ByteString remaining = data;
+        writeStage.write(remaining.size(), () -> writer.write(remaining), flowControl::onMessageHandled);
+        position += remaining.size();
+
+        if (position - lastCheckpoint >= uploads.bufferPool().bufferSize()) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        logger.warning("Upload stream interrupted: " + throwable.getMessage());
+        flowControl.stop();
+        if (session != null && !responded.get()) {
+            long offset = position;
+            checkpoint();
+            writeStage.submitAlways(() -> {
+                if (!writeStage.hasFailed()) {
+                    logger.info("Upload session " + session.sessionId() + " can be resumed at offset " + offset);
+                }
+                release();
+            });
+        }
+        respondError(throwable);
+    }
+
+    @Override
+    public void onCompleted() {
+        flowControl.stop();
+        if (responded.get()) {
+            return;
+        }
+        if (session == null) {
+            respondError(Status.INVALID_ARGUMENT.withDescription("No photo data received").asException());
+            return;
+        }
+
+        String photoHash = PhotoHashes.bytesToHex(messageDigest.digest());
+
+        writeStage.call(() -> finishUpload(photoHash)).whenComplete((stored, error) -> {
+            if (error != null) {
+                writeStage.submitAlways(this::release);
+                respondError(Status.INTERNAL.withDescription("Error storing photo").asException());
+                return;
+            }
+
+            if (!stored) {
+                logger.info("Hash mismatch: expected " + session.photoId() + ", got " + photoHash);
+                respondError(Status.INVALID_ARGUMENT
+                        .withDescription("Hash mismatch: expected " + session.photoId() + ", got " + photoHash)
+                        .asException());
+                return;
+            }
+
+            service.submitRequest(session.photoId(), session.photoName()).thenAccept(this::sendResponse);
+        });
+    }
+
+    private boolean attach(String sessionId) {
+        ResumableUpload candidate = sessions.get(sessionId);
+        if (candidate == null) {
+            fail(Status.NOT_FOUND.withDescription("Unknown upload session " + sessionId));
+            return false;
+        }
+
+        ResumableUpload.Checkpoint checkpoint = candidate.attach();
+        if (checkpoint == null) {
+            fail(Status.FAILED_PRECONDITION.withDescription("Upload session " + sessionId + " is already in use"));
+            return false;
+        }
+
+        session = candidate;
+        messageDigest = checkpoint.digest();
+        position = checkpoint.committedOffset();
+        lastCheckpoint = position;
+        writeStage.submit(() -> restoreWriter(checkpoint));
+        return true;
+    }
+
+    private void restoreWriter(ResumableUpload.Checkpoint checkpoint) throws IOException {
+        WriteChannel channel = service.restorePhotoWriter(checkpoint.channelState());
+        if (channel == null) {
+            throw new IOException("Could not resume upload session " + session.sessionId());
+        }
+        writer = new CoalescingWriter(channel, uploads.bufferPool());
+    }
+
+    /**
+     * Queues a checkpoint covering every byte received so far.
+     */
+    private void checkpoint() {
+        long offset = position;
+        MessageDigest digest = PhotoHashes.copy(messageDigest);
+        lastCheckpoint = offset;
+        writeStage.submit(() -> {
+            writer.flush();
+            byte[] state = service.capturePhotoWriter(writer.channel());
+            if (state == null) {
+                throw new IOException("Could not capture upload state");
+            }
+            session.commit(state, offset, digest);
+        });
+    }
+
+    /**
+     * Finalizes the blob once every queued chunk was written.
+     *
+     * @return False if the photo does not match the hash of the session.
+     */
+    private boolean finishUpload(String photoHash) throws IOException {
+        if (!photoHash.equals(session.photoId())) {
+            sessions.remove(session.sessionId());
+            writer.abandon();
+            writer = null;
+            return false;
+        }
+
+        CoalescingWriter finished = writer;
+        writer = null;
+        try {
+            finished.close();
+        } catch (IOException e) {
+            session.detach();
+            throw e;
+        }
+        sessions.remove(session.sessionId());
+        return true;
+    }
+
+    private void fail(Status status) {
+        flowControl.stop();
+        if (session != null) {
+            writeStage.submitAlways(this::release);
+        }
+        respondError(status.asException());
+    }
+
+    private void release() {
+        if (writer != null) {
+            writer.abandon();
+            writer = null;
+        }
+        if (session != null) {
+            session.detach();
+        }
+    }
+
+    private void onWriteFailure(Throwable throwable) {
+        logger.severe("Error writing photo bytes: " + throwable.getMessage());
+        flowControl.stop();
+        release();
+        respondError(Status.INTERNAL.withDescription("Error writing photo bytes").asException());
+    }
+
+    private void respondError(Throwable throwable) {
+        if (responded.compareAndSet(false, true)) {
+            responseObserver.onError(throwable);
+        }
+    }
+
+    private void sendResponse(Either<PhotoSubmitError, String> result) {
+        if (result.isLeft()) {
+            logger.severe("Error submitting photo analysis request: " + result.getLeft());
+            respondError(Status.INTERNAL
+                    .withDescription("Error submitting photo analysis request: " + result.getLeft())
+                    .asException());
+            return;
+        }
+
+        if (!responded.compareAndSet(false, true)) {
+            return;
+        }
+
+        responseObserver.onNext(SubmitIdentifier.newBuilder()
+                .setIdentifier(result.getRight())
+                .build());
+        responseObserver.onCompleted();
+
+        logger.info("Photo submitted successfully with ID: " + result.getRight());
+    }
+}
@@ -0,0 +1,168 @@
+package pt.isel.cn.landmarks.server.publisher;
+
+import com.google.pubsub.v1.PubsubMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Publisher that batches messages in memory using the same thresholds as
+ * {@link PubSubLandmarksPublisher}, without talking to Pub/Sub.
+ * <p>
+ * Each batch is "sent" after a configurable simulated round trip, so the
+ * effect of the batching settings on throughput can be measured locally.
+ * Published messages are handed to a sink, which can be used to feed a local worker.
+ */
+public class InMemoryLandmarksPublisher implements LandmarksPublisher {
+    private final PublisherSettings settings;
+    private final Duration roundTrip;
+    private final Consumer<PubsubMessage> sink;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Semaphore outstandingElements;
+    private final Semaphore outstandingBytes;
+    private final int maxOutstandingBytes;
+
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong publishedMessages = new AtomicLong();
+    private final AtomicLong publishedBatches = new AtomicLong();
+
+    private final Object lock = new Object();
+    private List<PendingMessage> batch = new ArrayList<>();
+    private long batchBytes = 0;
+    private ScheduledFuture<?> delayedFlush;
+
+    private record PendingMessage(PubsubMessage message, int size, CompletableFuture<String> future) {}
+
+    /**
+     * Statistics about the batches sent by the publisher.
+     *
+     * @param messages The number of messages published.
+     * @param batches The number of batches sent.
+     */
+    public record Stats(long messages, long batches) {
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) messages / batches;
+        }
+    }
+
+    public InMemoryLandmarksPublisher(PublisherSettings settings, Duration roundTrip, Consumer<PubsubMessage> sink) {
+        this.settings = settings;
+        this.roundTrip = roundTrip;
+        this.sink = sink;
+        this.outstandingElements = new Semaphore((int) Math.min(Integer.MAX_VALUE, settings.maxOutstandingElements()));
+        this.maxOutstandingBytes = (int) Math.min(Integer.MAX_VALUE, settings.maxOutstandingBytes());
+        this.outstandingBytes = new Semaphore(maxOutstandingBytes);
+    }
+
+    public InMemoryLandmarksPublisher(PublisherSettings settings) {
+        this(settings, Duration.ofMillis(20), message -> {});
+    }
+
+    @Override
+    public CompletableFuture<String> publish(String requestId, String photoId, String photoName) {
+        PubsubMessage message = LandmarksPublisher.createMessage(requestId, photoId, photoName);
+        int size = message.getSerializedSize();
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        // Waiting could never free enough bytes for such a message, so it is rejected like Pub/Sub does.
+        if (size > maxOutstandingBytes) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "Message of " + size + " bytes exceeds the outstanding bytes limit of " + maxOutstandingBytes));
+            return future;
+        }
+
+        try {
+            outstandingElements.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            outstandingBytes.acquire(size);
+        } catch (InterruptedException e) {
+            outstandingElements.release();
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        List<PendingMessage> toSend = null;
+        synchronized (lock) {
+            batch.add(new PendingMessage(message, size, future));
+            batchBytes += size;
+
+            if (batch.size() >= settings.elementCountThreshold() || batchBytes >= settings.requestByteThreshold()) {
+                toSend = takeBatch();
+            } else if (batch.size() == 1) {
+                delayedFlush = scheduler.schedule(this::flush, settings.delayThreshold().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (toSend != null) {
+            send(toSend);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the current batch regardless of the thresholds.
+     */
+    public void flush() {
+        List<PendingMessage> toSend;
+        synchronized (lock) {
+            toSend = takeBatch();
+        }
+        if (!toSend.isEmpty()) {
+            send(toSend);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(publishedMessages.get(), publishedBatches.get());
+    }
+
+    @Override
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<PendingMessage> takeBatch() {
+        List<PendingMessage> taken = batch;
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        if (delayedFlush != null) {
+            delayedFlush.cancel(false);
+            delayedFlush = null;
+        }
+        return taken;
+    }
+
+    private void send(List<PendingMessage> messages) {
+        scheduler.schedule(() -> {
+            publishedBatches.incrementAndGet();
+            for (PendingMessage pending : messages) {
+                sink.accept(pending.message());
+                publishedMessages.incrementAndGet();
+                outstandingElements.release();
+                outstandingBytes.release(pending.size());
+                pending.future().complete(String.valueOf(messageIds.incrementAndGet()));
+            }
+        }, roundTrip.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
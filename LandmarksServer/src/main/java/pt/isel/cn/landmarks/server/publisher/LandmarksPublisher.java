@@ -1,43 +1,48 @@
 package pt.isel.cn.landmarks.server.publisher;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.pubsub.v1.Publisher;
 import com.google.pubsub.v1.PubsubMessage;
-import com.google.pubsub.v1.TopicName;
 import pt.isel.cn.landmarks.domain.Config;
-import pt.isel.cn.landmarks.server.error.PublishError;
 
-import java.util.logging.Logger;
-
-public class LandmarksPublisher {
-    private final static Logger logger = Logger.getLogger(LandmarksPublisher.class.getName());
-
-    public void publish(
-        String requestId,
-        String photoId,
-        String photoName
-    ) {
-        TopicName topicName = TopicName.ofProjectTopicName(Config.PROJECT_ID, Config.PHOTOS_BUCKET);
-        try {
-            Publisher publisher = Publisher.newBuilder(topicName).build();
-
-            PubsubMessage message = PubsubMessage.newBuilder()
-                    .putAttributes("requestId", requestId)
-                    .putAttributes("photoId", photoId)
-                    .putAttributes("photoName", photoName)
-                    .putAttributes("blobName", photoId)
-                    .putAttributes("bucketName", Config.PHOTOS_BUCKET)
-                    .build();
-
-            ApiFuture<String> future = publisher.publish(message);
-            String messageId = future.get();
-
-            logger.info("Message published with ID: " + messageId);
-
-            publisher.shutdown();
-        } catch (Exception e) {
-            logger.severe("Error publishing message: " + e.getMessage());
-            new PublishError();
-        }
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This interface represents a publisher of landmark detection requests.
+ * <p>
+ * Implementations are meant to be long-lived and shared by every request
+ * handled by the server, so that connection setup and batching costs are
+ * paid once per process instead of once per photo.
+ */
+public interface LandmarksPublisher {
+    /**
+     * Publishes a landmark detection request without blocking the caller.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param photoId The ID of the photo to analyse.
+     * @param photoName The name of the photo.
+     * @return A future completed with the published message ID, or exceptionally if publishing failed.
+     */
+    CompletableFuture<String> publish(String requestId, String photoId, String photoName);
+
+    /**
+     * Flushes any pending messages and releases the publisher resources.
+     */
+    void shutdown();
+
+    /**
+     * Builds the message consumed by the landmark detection workers.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param photoId The ID of the photo to analyse.
+     * @param photoName The name of the photo.
+     * @return The message to publish.
+     */
+    static PubsubMessage createMessage(String requestId, String photoId, String photoName) {
+        return PubsubMessage.newBuilder()
+                .putAttributes("requestId", requestId)
+                .putAttributes("photoId", photoId)
+                .putAttributes("photoName", photoName)
+                .putAttributes("blobName", photoId)
+                .putAttributes("bucketName", Config.PHOTOS_BUCKET)
+                .build();
     }
 }
@@ -0,0 +1,83 @@
+package pt.isel.cn.landmarks.server.publisher;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.pubsub.v1.TopicName;
+import org.threeten.bp.Duration;
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Publisher backed by a single Google Cloud Pub/Sub {@link Publisher}
+ * shared by the whole server process.
+ * <p>
+ * Messages are batched according to the given {@link PublisherSettings}
+ * and flow control blocks new publishes once the outstanding limits are reached.
+ */
+public class PubSubLandmarksPublisher implements LandmarksPublisher {
+    private final Publisher publisher;
+
+    private static final Logger logger = Logger.getLogger(PubSubLandmarksPublisher.class.getName());
+
+    public PubSubLandmarksPublisher(PublisherSettings settings) throws IOException {
+        TopicName topicName = TopicName.ofProjectTopicName(Config.PROJECT_ID, Config.PHOTOS_BUCKET);
+
+        BatchingSettings batchingSettings = BatchingSettings.newBuilder()
+                .setElementCountThreshold(settings.elementCountThreshold())
+                .setRequestByteThreshold(settings.requestByteThreshold())
+                .setDelayThreshold(Duration.ofMillis(settings.delayThreshold().toMillis()))
+                .setFlowControlSettings(FlowControlSettings.newBuilder()
+                        .setMaxOutstandingElementCount(settings.maxOutstandingElements())
+                        .setMaxOutstandingRequestBytes(settings.maxOutstandingBytes())
+                        .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                        .build())
+                .build();
+
+        this.publisher = Publisher.newBuilder(topicName)
+                .setBatchingSettings(batchingSettings)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<String> publish(String requestId, String photoId, String photoName) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        ApiFuture<String> future = publisher.publish(LandmarksPublisher.createMessage(requestId, photoId, photoName));
+
+        ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+            @Override
+            public void onFailure(Throwable throwable) {
+                logger.severe("Error publishing message for request " + requestId + ": " + throwable.getMessage());
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onSuccess(String messageId) {
+                logger.info("Message published with ID: " + messageId);
+                result.complete(messageId);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return result;
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            publisher.shutdown();
+            publisher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.severe("Interrupted while shutting down publisher");
+        }
+    }
+}
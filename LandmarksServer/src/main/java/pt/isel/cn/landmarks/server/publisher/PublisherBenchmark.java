@@ -0,0 +1,61 @@
+package pt.isel.cn.landmarks.server.publisher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures publish throughput with the in-memory publisher, using the
+ * batching settings read from the environment.
+ * <p>
+ * Usage: {@code PublisherBenchmark [messages] [threads] [roundTripMillis]}
+ */
+public class PublisherBenchmark {
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long roundTripMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        if (messages < 0 || threads < 1 || roundTripMillis < 0) {
+            System.err.println("Usage: PublisherBenchmark [messages >= 0] [threads >= 1] [roundTripMillis >= 0]");
+            System.exit(1);
+        }
+
+        PublisherSettings settings = PublisherSettings.fromEnv();
+        InMemoryLandmarksPublisher publisher = new InMemoryLandmarksPublisher(settings, Duration.ofMillis(roundTripMillis), message -> {});
+
+        System.out.println("Publishing " + messages + " messages from " + threads + " threads with " + settings);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<String>> futures = new ArrayList<>(messages);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<CompletableFuture<Void>> submissions = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int count = messages / threads + (t < messages % threads ? 1 : 0);
+                submissions.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < count; i++) {
+                        String id = UUID.randomUUID().toString();
+                        CompletableFuture<String> future = publisher.publish(id, id, "benchmark");
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(submissions.toArray(CompletableFuture[]::new)).join();
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        publisher.shutdown();
+
+        InMemoryLandmarksPublisher.Stats stats = publisher.getStats();
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.printf("Published %d messages in %d batches (avg %.1f per batch)%n",
+                stats.messages(), stats.batches(), stats.averageBatchSize());
+        System.out.printf("Elapsed %.2fs, throughput %.0f msg/s%n", seconds, stats.messages() / seconds);
+    }
+}
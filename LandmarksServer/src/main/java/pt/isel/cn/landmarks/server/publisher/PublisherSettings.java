@@ -0,0 +1,38 @@
+package pt.isel.cn.landmarks.server.publisher;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+import java.time.Duration;
+
+/**
+ * Batching and flow control settings shared by the publisher implementations.
+ *
+ * @param elementCountThreshold The number of messages that triggers a batch to be sent.
+ * @param requestByteThreshold The size in bytes that triggers a batch to be sent.
+ * @param delayThreshold The maximum time a message waits in a batch before it is sent.
+ * @param maxOutstandingElements The maximum number of messages waiting to be published.
+ * @param maxOutstandingBytes The maximum number of bytes waiting to be published.
+ */
+public record PublisherSettings(
+        long elementCountThreshold,
+        long requestByteThreshold,
+        Duration delayThreshold,
+        long maxOutstandingElements,
+        long maxOutstandingBytes
+) {
+    /**
+     * Reads the publisher settings from the environment, falling back to
+     * defaults suited to bursts of small request messages.
+     *
+     * @return The publisher settings.
+     */
+    public static PublisherSettings fromEnv() {
+        return new PublisherSettings(
+                Config.getEnvLong("PUBLISHER_BATCH_ELEMENTS", 100),
+                Config.getEnvLong("PUBLISHER_BATCH_BYTES", 64 * 1024),
+                Duration.ofMillis(Config.getEnvLong("PUBLISHER_BATCH_DELAY_MS", 10)),
+                Config.getEnvLong("PUBLISHER_MAX_OUTSTANDING_ELEMENTS", 10_000),
+                Config.getEnvLong("PUBLISHER_MAX_OUTSTANDING_BYTES", 64 * 1024 * 1024)
+        );
+    }
+}
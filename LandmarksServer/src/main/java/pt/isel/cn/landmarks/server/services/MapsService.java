@@ -4,47 +4,114 @@ import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.domain.Either;
 import pt.isel.cn.landmarks.domain.Location;
 import pt.isel.cn.landmarks.server.error.MapsError;
+import pt.isel.cn.landmarks.server.maps.MapCache;
+import pt.isel.cn.landmarks.server.maps.MapKey;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 public class MapsService {
     private static final String API_URL = "https://maps.googleapis.com/maps/api/staticmap?";
-    private static final String ZOOM = "15";
+    private static final int ZOOM = 15;
     private static final String SIZE = "600x300";
+    private static final int STATS_LOG_INTERVAL = 1000;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(Config.getEnvLong("MAPS_CONNECT_TIMEOUT_MS", 2000));
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Config.getEnvLong("MAPS_REQUEST_TIMEOUT_MS", 5000));
 
-    private static final HttpClient client = HttpClient.newHttpClient();
+    private static final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
 
     private static final Logger logger = Logger.getLogger(MapsService.class.getName());
 
-    public Either<MapsError, byte[]> getMap(Location location) {
+    private final MapCache cache;
+    private final Map<MapKey, CompletableFuture<Either<MapsError, byte[]>>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+
+    public MapsService(MapCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the map around a location, from the cache when possible.
+     * <p>
+     * Concurrent requests for the same map share a single fetch from the Maps API.
+     *
+     * @param location The location at the center of the map.
+     * @return A future completed with the map image, or an error if it could not be fetched.
+     */
+    public CompletableFuture<Either<MapsError, byte[]>> getMapAsync(Location location) {
+        MapKey key = MapKey.of(location, ZOOM, SIZE);
+
+        if (lookups.incrementAndGet() % STATS_LOG_INTERVAL == 0) {
+            MapCache.Stats stats = cache.getStats();
+            logger.info("Map cache: " + stats.hits() + " hits, " + stats.misses() + " misses, hit ratio " + stats.hitRatio());
+        }
+
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Either.right(cached));
+        }
+
+        CompletableFuture<Either<MapsError, byte[]>> fetch = new CompletableFuture<>();
+        CompletableFuture<Either<MapsError, byte[]>> existing = inFlight.putIfAbsent(key, fetch);
+        if (existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<Either<MapsError, byte[]>> fetched;
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_URL + "center=" + location.latitude() + "," + location.longitude() +
-                            "&zoom=" + ZOOM +
-                            "&size=" + SIZE +
-                            "&key=" + Config.API_KEY))
-                    .GET()
-                    .build();
-
-            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-
-            if (response.statusCode() != 200) {
-                logger.severe("Error fetching map: " + response.statusCode());
-                return Either.left(new MapsError());
+            fetched = fetchMap(key.center());
+        } catch (Exception e) {
+            // The entry must still be removed, or later requests for the map would wait forever.
+            fetched = CompletableFuture.failedFuture(e);
+        }
+
+        fetched.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.severe("Error fetching map: " + error.getMessage());
+                result = Either.left(new MapsError());
             }
+            result.ifRight(image -> cache.put(key, image));
+            inFlight.remove(key);
+            fetch.complete(result);
+        });
+        return fetch;
+    }
 
-            byte[] mapData = response.body().readAllBytes();
-            response.body().close();
-            return Either.right(mapData);
-        } catch (IOException | InterruptedException e) {
-            logger.severe("Error fetching map: " + e.getMessage());
-            return Either.left(new MapsError());
-        }
+    public MapCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
+
+    private CompletableFuture<Either<MapsError, byte[]>> fetchMap(Location location) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(API_URL + "center=" + location.latitude() + "," + location.longitude() +
+                        "&zoom=" + ZOOM +
+                        "&size=" + SIZE +
+                        "&key=" + Config.API_KEY))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .<Either<MapsError, byte[]>>thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        logger.severe("Error fetching map: " + response.statusCode());
+                        return Either.left(new MapsError());
+                    }
+                    return Either.right(response.body());
+                })
+                .exceptionally(e -> {
+                    logger.severe("Error fetching map: " + e.getMessage());
+                    return Either.left(new MapsError());
+                });
     }
 }
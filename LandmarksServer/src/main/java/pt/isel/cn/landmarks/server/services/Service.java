@@ -5,60 +5,118 @@ import pt.isel.cn.landmarks.domain.AnalysisMetadata;
 import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.domain.Either;
 import pt.isel.cn.landmarks.domain.Status;
+import pt.isel.cn.landmarks.server.error.Error;
+import pt.isel.cn.landmarks.server.error.InvalidCursorError;
 import pt.isel.cn.landmarks.server.error.LookupErrorType;
 import pt.isel.cn.landmarks.server.error.PhotoSubmitError;
 import pt.isel.cn.landmarks.server.error.PhotosByConfidenceError;
+import pt.isel.cn.landmarks.server.index.ConfidenceIndex;
 import pt.isel.cn.landmarks.server.publisher.LandmarksPublisher;
+import pt.isel.cn.landmarks.server.watch.ResultsWatch;
+import pt.isel.cn.landmarks.server.watch.ResultsWatchRegistry;
 import pt.isel.cn.landmarks.storage.blob.BlobStorage;
+import pt.isel.cn.landmarks.storage.blob.ContentTypes;
+import pt.isel.cn.landmarks.storage.metadata.InvalidCursorException;
+import pt.isel.cn.landmarks.storage.metadata.MetadataPage;
 import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 public class Service {
     private final BlobStorage blobStorage;
     private final MetadataStorage metadataStorage;
     private final LandmarksPublisher landmarksPublisher;
+    private final ResultsWatchRegistry resultsWatches;
+    private final ConfidenceIndex confidenceIndex;
 
     private static final String PHOTOS_BUCKET = Config.PHOTOS_BUCKET;
+    /**
+     * The number of requests read together by {@link #lookupResultsBatch(List)},
+     * matching the largest read the metadata storage makes in one round trip.
+     */
+    private static final int LOOKUP_CHUNK_SIZE = 500;
 
     private static final Logger logger = Logger.getLogger(Service.class.getName());
 
-    public Service(BlobStorage cloudStorage, MetadataStorage metadataStorage, LandmarksPublisher landmarksPublisher) {
+    /**
+     * @param confidenceIndex The index used to answer threshold queries once it is ready, or null to always query the storage.
+     */
+    public Service(BlobStorage cloudStorage, MetadataStorage metadataStorage, LandmarksPublisher landmarksPublisher, ConfidenceIndex confidenceIndex) {
         this.blobStorage = cloudStorage;
         this.metadataStorage = metadataStorage;
         this.landmarksPublisher = landmarksPublisher;
+        this.resultsWatches = new ResultsWatchRegistry(metadataStorage);
+        this.confidenceIndex = confidenceIndex;
     }
 
     /**
-     * Submits a photo to the cloud if it doesn't already exist
-     * and makes an analysis request.
+     * Makes an analysis request for a photo that was already stored in the cloud.
+     * <p>
+     * Photos are stored under their content hash, so if the same photo was already
+     * successfully analysed the new request is created with the previous results and
+     * no detection job is published.
+     * <p>
+     * Otherwise, the request metadata is saved first and the detection job is only
+     * published once the save is durable, so the worker never updates a request that
+     * does not exist yet. Neither step blocks the calling thread.
      *
      * @param photoId The ID of the photo to submit.
      * @param photoName The name of the photo.
-     * @return Either a PhotoSubmitError or null if successful.
+     * @return A future completed with either a PhotoSubmitError or the request ID.
      */
-    public Either<PhotoSubmitError, String> submitRequest(String photoId, String photoName) {
+    public CompletableFuture<Either<PhotoSubmitError, String>> submitRequest(String photoId, String photoName) {
         String requestId = UUID.randomUUID().toString();
         try {
-            metadataStorage.saveAnalysisMetadata(
+            return metadataStorage.getLatestSuccessfulAnalysisAsync(photoId)
+                    .exceptionally(e -> {
+                        logger.warning("Error looking up previous analysis of " + photoId + ": " + e.getMessage());
+                        return null;
+                    })
+                    .thenCompose(previous -> previous != null
+                            ? reuseAnalysis(requestId, photoName, previous)
+                            : requestAnalysis(requestId, photoId, photoName))
+                    .thenApply(ignored -> Either.<PhotoSubmitError, String>right(requestId))
+                    .exceptionally(e -> {
+                        logger.severe("Error submitting photo: " + e.getMessage());
+                        return Either.left(new PhotoSubmitError());
+                    });
+        } catch (Exception e) {
+            logger.severe("Error submitting photo: " + e.getMessage());
+            return CompletableFuture.completedFuture(Either.left(new PhotoSubmitError()));
+        }
+    }
+
+    private CompletableFuture<Void> reuseAnalysis(String requestId, String photoName, AnalysisMetadata previous) {
+        logger.info("Reusing previous analysis of photo " + previous.photoId() + " for request " + requestId);
+        return metadataStorage.saveAnalysisMetadataAsync(
+                requestId,
+                new AnalysisMetadata(
+                    previous.photoId(),
+                    photoName,
+                    Status.SUCCESS,
+                    previous.landmarks()
+                ));
+    }
+
+    private CompletableFuture<Void> requestAnalysis(String requestId, String photoId, String photoName) {
+        return metadataStorage.saveAnalysisMetadataAsync(
                 requestId,
                 new AnalysisMetadata(
                     photoId,
                     photoName,
                     Status.IN_PROGRESS,
                     new ArrayList<>()
-                )
-            );
-            landmarksPublisher.publish(requestId, photoId, photoName);
-            return Either.right(requestId);
-        } catch (Exception e) {
-            logger.severe("Error submitting photo: " + e.getMessage());
-            return Either.left(new PhotoSubmitError());
-        }
+                ))
+                .thenCompose(saved -> landmarksPublisher.publish(requestId, photoId, photoName))
+                .thenApply(messageId -> null);
     }
 
     /**
@@ -76,6 +134,20 @@ public class Service {
         }
     }
 
+    /**
+     * Checks if a photo already exists in the cloud storage without blocking the caller.
+     *
+     * @param photoId The ID of the photo to check.
+     * @return A future completed with true if the photo exists, false if it does not or the check failed.
+     */
+    public CompletableFuture<Boolean> photoExistsAsync(String photoId) {
+        return blobStorage.blobExistsAsync(PHOTOS_BUCKET, photoId)
+                .exceptionally(e -> {
+                    logger.severe("Error checking if photo exists: " + e.getMessage());
+                    return false;
+                });
+    }
+
     /**
      * Deletes a photo from the cloud storage.
      *
@@ -91,68 +163,229 @@ public class Service {
 
     /**
      * Gets a write channel for a photo.
+     * <p>
+     * The content type is guessed from the name of the photo, since the
+     * channel is opened before any byte arrives. When photo normalization is
+     * enabled, the worker corrects it from the photo bytes while creating the
+     * normalized derivative, which only happens the first time the photo is
+     * analysed. Otherwise the guessed type is kept.
      *
      * @param photoId The ID of the photo.
+     * @param photoName The name of the photo.
      *
-     * @return Either a PhotoSubmitError or null if successful.
+     * @return The write channel, or null if it could not be opened.
      */
-    public WriteChannel getPhotoWriter(String photoId) {
+    public WriteChannel getPhotoWriter(String photoId, String photoName) {
         try {
-            return blobStorage.getWriteChannel(PHOTOS_BUCKET, photoId, "image/png");
+            return blobStorage.getWriteChannel(PHOTOS_BUCKET, photoId, ContentTypes.fromName(photoName));
         } catch (Exception e) {
             logger.severe("Error getting write channel: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Captures the state of a photo write channel so the upload can be resumed.
+     *
+     * @param writer The write channel of the upload.
+     *
+     * @return The captured state, or null if it could not be captured.
+     */
+    public byte[] capturePhotoWriter(WriteChannel writer) {
+        try {
+            return blobStorage.captureWriteChannel(writer);
+        } catch (Exception e) {
+            logger.severe("Error capturing write channel: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Restores a photo write channel from a captured state.
+     *
+     * @param state The captured state of the upload.
+     *
+     * @return The restored write channel, or null if it could not be restored.
+     */
+    public WriteChannel restorePhotoWriter(byte[] state) {
+        try {
+            return blobStorage.restoreWriteChannel(state);
+        } catch (Exception e) {
+            logger.severe("Error restoring write channel: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Looks up the results of a photo analysis by the request ID.
      *
      * @param requestId The ID of the request.
-     * @return Either a LookupError or the AnalysisMetadata if successful.
+     * @return A future completed with either a LookupError or the AnalysisMetadata if successful.
      */
-    public Either<LookupErrorType, AnalysisMetadata> lookupResults(String requestId) {
+    public CompletableFuture<Either<LookupErrorType, AnalysisMetadata>> lookupResults(String requestId) {
         try {
-            AnalysisMetadata analysisMetadata = metadataStorage.getAnalysisMetadata(requestId);
-
-            if (analysisMetadata == null) {
-                return Either.left(LookupErrorType.NOT_FOUND);
-            }
+            return metadataStorage.getAnalysisMetadataAsync(requestId)
+                    .thenApply(Service::toLookupResult)
+                    .exceptionally(e -> {
+                        logger.severe("Error looking up photo: " + e.getMessage());
+                        return Either.left(LookupErrorType.UNKNOWN);
+                    });
+        } catch (Exception e) {
+            logger.severe("Error looking up photo: " + e.getMessage());
+            return CompletableFuture.completedFuture(Either.left(LookupErrorType.UNKNOWN));
+        }
+    }
 
-            if (analysisMetadata.status() == Status.IN_PROGRESS) {
-                return Either.left(LookupErrorType.PENDING);
-            }
+    /**
+     * Looks up the results of several analysis requests at once.
+     * <p>
+     * The requests are read in bulk, in chunks of {@value #LOOKUP_CHUNK_SIZE},
+     * so a large batch only takes a few round trips to the storage. Each
+     * request has its own result, and a failed chunk only affects the requests
+     * it covered, which are reported as UNKNOWN.
+     *
+     * @param requestIds The IDs of the requests.
+     * @return A future completed with either a LookupError or the AnalysisMetadata of each distinct request, in order.
+     */
+    public CompletableFuture<Map<String, Either<LookupErrorType, AnalysisMetadata>>> lookupResultsBatch(List<String> requestIds) {
+        List<CompletableFuture<Map<String, Either<LookupErrorType, AnalysisMetadata>>>> chunks = new ArrayList<>();
+        for (int start = 0; start < requestIds.size(); start += LOOKUP_CHUNK_SIZE) {
+            chunks.add(lookupResultsChunk(requestIds.subList(start, Math.min(start + LOOKUP_CHUNK_SIZE, requestIds.size()))));
+        }
 
-            if (analysisMetadata.status() == Status.FAILURE) {
-                return Either.left(LookupErrorType.FAILED);
-            }
+        return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Map<String, Either<LookupErrorType, AnalysisMetadata>> results = new LinkedHashMap<>();
+                    chunks.forEach(chunk -> results.putAll(chunk.join()));
+                    return results;
+                });
+    }
 
-            return Either.right(analysisMetadata);
+    /**
+     * Looks up one chunk of a batch. The returned future never fails.
+     */
+    private CompletableFuture<Map<String, Either<LookupErrorType, AnalysisMetadata>>> lookupResultsChunk(List<String> requestIds) {
+        try {
+            return metadataStorage.getAnalysisMetadataBatchAsync(requestIds)
+                    .thenApply(found -> {
+                        Map<String, Either<LookupErrorType, AnalysisMetadata>> results = new LinkedHashMap<>();
+                        for (String requestId : requestIds) {
+                            results.put(requestId, toLookupResult(found.get(requestId)));
+                        }
+                        return results;
+                    })
+                    .exceptionally(e -> {
+                        logger.severe("Error looking up " + requestIds.size() + " photos: " + e.getMessage());
+                        return unknownResults(requestIds);
+                    });
         } catch (Exception e) {
-            logger.severe("Error looking up photo: " + e.getMessage());
-            return Either.left(LookupErrorType.UNKNOWN);
+            logger.severe("Error looking up " + requestIds.size() + " photos: " + e.getMessage());
+            return CompletableFuture.completedFuture(unknownResults(requestIds));
+        }
+    }
+
+    private static Map<String, Either<LookupErrorType, AnalysisMetadata>> unknownResults(List<String> requestIds) {
+        Map<String, Either<LookupErrorType, AnalysisMetadata>> results = new LinkedHashMap<>();
+        for (String requestId : requestIds) {
+            results.put(requestId, Either.left(LookupErrorType.UNKNOWN));
         }
+        return results;
+    }
+
+    /**
+     * Watches the results of an analysis request until the analysis finishes.
+     *
+     * @param requestId The unique identifier for the request.
+     * @return The watch, which must be closed once the caller stops waiting.
+     */
+    public ResultsWatch watchResults(String requestId) {
+        return resultsWatches.watch(requestId);
+    }
+
+    /**
+     * Classifies the metadata of an analysis request as a lookup result.
+     *
+     * @param analysisMetadata The analysis metadata, or null if the request does not exist.
+     * @return Either a LookupErrorType or the metadata of a successful analysis.
+     */
+    public static Either<LookupErrorType, AnalysisMetadata> toLookupResult(AnalysisMetadata analysisMetadata) {
+        if (analysisMetadata == null) {
+            return Either.left(LookupErrorType.NOT_FOUND);
+        }
+
+        if (analysisMetadata.status() == Status.IN_PROGRESS) {
+            return Either.left(LookupErrorType.PENDING);
+        }
+
+        if (analysisMetadata.status() == Status.FAILURE || analysisMetadata.status() == Status.DEAD_LETTERED) {
+            return Either.left(LookupErrorType.FAILED);
+        }
+
+        return Either.right(analysisMetadata);
     }
 
     /**
      * Retrieves all analysis metadata above a certain confidence threshold.
      *
      * @param confidenceThreshold The confidence threshold.
-     * @return Either a PhotosByConfidenceError or a list of AnalysisMetadata if successful.
+     * @return A future completed with either a PhotosByConfidenceError or a list of AnalysisMetadata if successful.
+     */
+    public CompletableFuture<Either<PhotosByConfidenceError, List<AnalysisMetadata>>> getResultsByConfidenceThreshold(double confidenceThreshold) {
+        if (confidenceIndex != null && confidenceIndex.isReady()) {
+            return CompletableFuture.completedFuture(Either.right(confidenceIndex.above(confidenceThreshold)));
+        }
+        try {
+            return metadataStorage.getAnalysisMetadataByConfidenceThresholdAsync(confidenceThreshold)
+                    .<Either<PhotosByConfidenceError, List<AnalysisMetadata>>>thenApply(metadataArray -> {
+                        if (metadataArray == null || metadataArray.length == 0) {
+                            return Either.right(new ArrayList<>());
+                        }
+                        return Either.right(Arrays
+                                .stream(metadataArray)
+                                .filter(metadata -> metadata.status() == Status.SUCCESS)
+                                .toList());
+                    })
+                    .exceptionally(e -> {
+                        logger.severe("Error retrieving photos by confidence threshold: " + e.getMessage());
+                        return Either.left(new PhotosByConfidenceError());
+                    });
+        } catch (Exception e) {
+            logger.severe("Error retrieving photos by confidence threshold: " + e.getMessage());
+            return CompletableFuture.completedFuture(Either.left(new PhotosByConfidenceError()));
+        }
+    }
+
+    /**
+     * Retrieves one page of the successful analyses above a certain confidence threshold.
+     *
+     * @param confidenceThreshold The confidence threshold.
+     * @param pageSize The maximum number of analyses in the page.
+     * @param cursor The cursor of the page, or null for the first page.
+     * @return A future completed with either an error or the page if successful.
      */
-    public Either<PhotosByConfidenceError, List<AnalysisMetadata>> getResultsByConfidenceThreshold(double confidenceThreshold) {
+    public CompletableFuture<Either<Error, MetadataPage>> getResultsPageByConfidenceThreshold(double confidenceThreshold, int pageSize, String cursor) {
         try {
-            AnalysisMetadata[] metadataArray = metadataStorage.getAnalysisMetadataByConfidenceThreshold(confidenceThreshold);
-            if (metadataArray == null || metadataArray.length == 0) {
-                return Either.right(new ArrayList<>());
-            }
-            return Either.right(Arrays
-                    .stream(metadataArray)
-                    .filter(metadata -> metadata.status() == Status.SUCCESS)
-                    .toList());
+            return metadataStorage.getAnalysisMetadataPageByConfidenceThresholdAsync(confidenceThreshold, pageSize, cursor)
+                    .<Either<Error, MetadataPage>>thenApply(page -> {
+                        Map<String, AnalysisMetadata> items = new LinkedHashMap<>();
+                        page.items().forEach((requestId, metadata) -> {
+                            if (metadata.status() == Status.SUCCESS) {
+                                items.put(requestId, metadata);
+                            }
+                        });
+                        return Either.right(new MetadataPage(items, page.nextCursor()));
+                    })
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof InvalidCursorException) {
+                            return Either.left(new InvalidCursorError());
+                        }
+                        logger.severe("Error retrieving photos by confidence threshold: " + cause.getMessage());
+                        return Either.left(new PhotosByConfidenceError());
+                    });
         } catch (Exception e) {
             logger.severe("Error retrieving photos by confidence threshold: " + e.getMessage());
-            return Either.left(new PhotosByConfidenceError());
+            return CompletableFuture.completedFuture(Either.left(new PhotosByConfidenceError()));
         }
     }
 }
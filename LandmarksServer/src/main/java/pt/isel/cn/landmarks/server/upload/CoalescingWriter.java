@@ -0,0 +1,111 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import com.google.cloud.WriteChannel;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes photo chunks to a {@link WriteChannel} through a pooled direct buffer.
+ * <p>
+ * Incoming chunks are read straight from the read-only buffers backing their
+ * {@link ByteString}, without copying them to the heap first, and are coalesced
+ * until a full buffer can be handed to the channel in a single write.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class CoalescingWriter {
+    private final WriteChannel channel;
+    private final DirectBufferPool pool;
+    private ByteBuffer buffer;
+    private long bytesWritten = 0;
+
+    public CoalescingWriter(WriteChannel channel, DirectBufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        channel.setChunkSize(pool.bufferSize());
+    }
+
+    /**
+     * Appends a chunk, flushing the staging buffer to the channel whenever it fills up.
+     *
+     * @param data The chunk to append.
+     * @throws IOException If writing to the channel fails.
+     */
+    public void write(ByteString data) throws IOException {
+        if (buffer == null) {
+            buffer = pool.acquire();
+        }
+        for (ByteBuffer source : data.asReadOnlyByteBufferList()) {
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), buffer.remaining());
+                ByteBuffer slice = source.slice();
+                slice.limit(length);
+                buffer.put(slice);
+                source.position(source.position() + length);
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes any staged bytes to the channel.
+     *
+     * @throws IOException If writing to the channel fails.
+     */
+    public void flush() throws IOException {
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return The underlying channel, e.g. to capture its state after a {@link #flush()}.
+     */
+    public WriteChannel channel() {
+        return channel;
+    }
+
+    /**
+     * @return The number of bytes handed to the channel so far.
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Flushes the staged bytes and closes the channel, finalizing the blob.
+     *
+     * @throws IOException If writing to or closing the channel fails.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.close();
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    /**
+     * Gives up on the upload without finalizing the blob.
+     */
+    public void abandon() {
+        releaseBuffer();
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
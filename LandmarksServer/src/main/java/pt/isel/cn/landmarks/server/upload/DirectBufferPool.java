@@ -0,0 +1,67 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable direct buffers used to stage photo bytes before they are
+ * written to the blob storage.
+ * <p>
+ * Direct buffers are expensive to allocate and are not reclaimed promptly by
+ * the garbage collector, so they are kept and handed out again instead of
+ * being allocated for every upload.
+ */
+public class DirectBufferPool {
+    /**
+     * Granularity of Google Cloud Storage resumable upload chunks.
+     */
+    public static final int GCS_CHUNK_GRANULARITY = 256 * 1024;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedDeque<ByteBuffer> buffers = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize The requested size of each buffer, rounded up to a multiple of {@link #GCS_CHUNK_GRANULARITY}.
+     * @param maxPooled The maximum number of idle buffers kept by the pool.
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        int chunks = Math.max(1, (bufferSize + GCS_CHUNK_GRANULARITY - 1) / GCS_CHUNK_GRANULARITY);
+        this.bufferSize = chunks * GCS_CHUNK_GRANULARITY;
+        this.maxPooled = maxPooled;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets a cleared buffer, reusing an idle one when available.
+     *
+     * @return A direct buffer with {@link #bufferSize()} bytes of capacity.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.pollFirst();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond the pool limit are dropped.
+     *
+     * @param buffer The buffer to return.
+     */
+    public void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.offerFirst(buffer);
+    }
+}
@@ -0,0 +1,83 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Manual flow control for a client-streaming upload.
+ * <p>
+ * At most {@code window} messages are requested from the transport and not
+ * yet handled at any time, and no more are requested while the server-wide
+ * {@link UploadBudget} is exhausted. The call must have automatic requests
+ * disabled with {@link ServerCallStreamObserver#disableAutoRequest()}.
+ */
+public class InboundFlowControl {
+    private final ServerCallStreamObserver<?> call;
+    private final int window;
+    private final UploadBudget budget;
+
+    private int pending = 0;
+    private boolean waiting = false;
+    private boolean stopped = false;
+
+    public InboundFlowControl(ServerCallStreamObserver<?> call, int window, UploadBudget budget) {
+        this.call = call;
+        this.window = window;
+        this.budget = budget;
+    }
+
+    /**
+     * Requests the first window of messages.
+     */
+    public void start() {
+        refill();
+    }
+
+    /**
+     * Signals that a received message was fully handled, e.g. written to storage,
+     * making room for another one.
+     */
+    public void onMessageHandled() {
+        synchronized (this) {
+            pending--;
+        }
+        refill();
+    }
+
+    /**
+     * Stops requesting messages.
+     */
+    public synchronized void stop() {
+        stopped = true;
+    }
+
+    private void refill() {
+        int count;
+        synchronized (this) {
+            if (stopped || waiting) {
+                return;
+            }
+            if (budget.hasCapacity()) {
+                count = window - pending;
+                if (count <= 0) {
+                    return;
+                }
+                pending += count;
+            } else {
+                waiting = true;
+                count = 0;
+            }
+        }
+        if (count == 0) {
+            budget.whenAvailable(this::resume);
+            return;
+        }
+        call.request(count);
+    }
+
+    private void resume() {
+        synchronized (this) {
+            waiting = false;
+        }
+        refill();
+    }
+}
@@ -0,0 +1,102 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.security.MessageDigest;
+import java.time.Instant;
+
+/**
+ * State of a resumable photo upload.
+ * <p>
+ * A session keeps the captured state of the blob write channel together with
+ * the number of bytes it covers and the hash of those bytes, so that an
+ * interrupted upload can continue from the committed offset instead of
+ * starting over. Only one stream may be attached to a session at a time.
+ */
+public class ResumableUpload {
+    private final String sessionId;
+    private final String photoId;
+    private final String photoName;
+
+    private byte[] channelState;
+    private long committedOffset;
+    private MessageDigest digest;
+    private boolean attached = false;
+    private Instant lastActivity = Instant.now();
+
+    /**
+     * Checkpoint of a session.
+     *
+     * @param channelState The captured state of the write channel.
+     * @param committedOffset The number of bytes covered by the channel state.
+     * @param digest A copy of the hash of the first {@code committedOffset} bytes.
+     */
+    public record Checkpoint(byte[] channelState, long committedOffset, MessageDigest digest) {}
+
+    public ResumableUpload(String sessionId, String photoId, String photoName, byte[] channelState) {
+        this.sessionId = sessionId;
+        this.photoId = photoId;
+        this.photoName = photoName;
+        this.channelState = channelState;
+        this.committedOffset = 0;
+        this.digest = PhotoHashes.createSha256Digest();
+    }
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    public String photoId() {
+        return photoId;
+    }
+
+    public String photoName() {
+        return photoName;
+    }
+
+    public synchronized long committedOffset() {
+        return committedOffset;
+    }
+
+    public synchronized Instant lastActivity() {
+        return lastActivity;
+    }
+
+    public synchronized boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * Attaches a stream to the session.
+     *
+     * @return The latest checkpoint, or null if another stream is already attached.
+     */
+    public synchronized Checkpoint attach() {
+        if (attached) {
+            return null;
+        }
+        attached = true;
+        lastActivity = Instant.now();
+        return new Checkpoint(channelState, committedOffset, PhotoHashes.copy(digest));
+    }
+
+    /**
+     * Records a new checkpoint for the attached stream.
+     *
+     * @param channelState The captured state of the write channel.
+     * @param committedOffset The number of bytes covered by the channel state.
+     * @param digest The hash of the first {@code committedOffset} bytes, which is copied.
+     */
+    public synchronized void commit(byte[] channelState, long committedOffset, MessageDigest digest) {
+        this.channelState = channelState;
+        this.committedOffset = committedOffset;
+        this.digest = PhotoHashes.copy(digest);
+        this.lastActivity = Instant.now();
+    }
+
+    /**
+     * Detaches the stream, allowing the upload to be resumed by another one.
+     */
+    public synchronized void detach() {
+        attached = false;
+        lastActivity = Instant.now();
+    }
+}
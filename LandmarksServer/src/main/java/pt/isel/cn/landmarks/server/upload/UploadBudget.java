@@ -0,0 +1,67 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide budget of photo bytes that were received but not yet written
+ * to the blob storage.
+ * <p>
+ * Uploads stop asking for more messages while the budget is exhausted and
+ * register to be woken up once enough bytes are written, which keeps the
+ * memory used by concurrent uploads bounded.
+ */
+public class UploadBudget {
+    private final long maxBytes;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    public UploadBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean hasCapacity() {
+        return inFlightBytes.get() < maxBytes;
+    }
+
+    public long inFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    public void reserve(long bytes) {
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        if (inFlightBytes.addAndGet(-bytes) < maxBytes) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Runs the given action once the budget has capacity again.
+     * <p>
+     * The action runs on the thread that releases the bytes, so it must not block,
+     * and the caller must not hold any lock the action may take.
+     *
+     * @param action The action to run.
+     */
+    public void whenAvailable(Runnable action) {
+        waiters.add(action);
+        if (hasCapacity()) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        List<Runnable> ready = new ArrayList<>();
+        Runnable waiter;
+        while (hasCapacity() && (waiter = waiters.poll()) != null) {
+            ready.add(waiter);
+        }
+        ready.forEach(Runnable::run);
+    }
+}
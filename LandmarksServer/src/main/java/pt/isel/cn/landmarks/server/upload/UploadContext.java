@@ -0,0 +1,18 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Resources shared by every photo upload handled by the server.
+ *
+ * @param bufferPool The pool of direct buffers used to stage photo bytes.
+ * @param ioExecutor The executor that runs the blocking blob storage operations.
+ * @param budget The server-wide budget of bytes received but not yet written.
+ * @param window The maximum number of messages buffered per upload.
+ */
+public record UploadContext(
+        DirectBufferPool bufferPool,
+        Executor ioExecutor,
+        UploadBudget budget,
+        int window
+) {}
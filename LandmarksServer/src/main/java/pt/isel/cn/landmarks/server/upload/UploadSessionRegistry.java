@@ -0,0 +1,69 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the resumable uploads known to this server.
+ * <p>
+ * Sessions that see no activity for longer than the configured time to live
+ * are dropped. Their blobs were never finalized, so no partial object is left
+ * behind in the bucket.
+ */
+public class UploadSessionRegistry {
+    private final Map<String, ResumableUpload> sessions = new ConcurrentHashMap<>();
+    private final Duration timeToLive;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-session-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Logger logger = Logger.getLogger(UploadSessionRegistry.class.getName());
+
+    public UploadSessionRegistry(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+        long period = Math.max(1, timeToLive.toSeconds() / 4);
+        sweeper.scheduleAtFixedRate(this::removeExpired, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a new upload.
+     *
+     * @param photoId The hash of the photo being uploaded.
+     * @param photoName The name of the photo.
+     * @param channelState The captured state of the freshly opened write channel.
+     * @return The new session.
+     */
+    public ResumableUpload create(String photoId, String photoName, byte[] channelState) {
+        ResumableUpload session = new ResumableUpload(UUID.randomUUID().toString(), photoId, photoName, channelState);
+        sessions.put(session.sessionId(), session);
+        return session;
+    }
+
+    public ResumableUpload get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    private void removeExpired() {
+        Instant deadline = Instant.now().minus(timeToLive);
+        sessions.values().removeIf(session -> {
+            boolean expired = !session.isAttached() && session.lastActivity().isBefore(deadline);
+            if (expired) {
+                logger.info("Upload session " + session.sessionId() + " expired at offset " + session.committedOffset());
+            }
+            return expired;
+        });
+    }
+}
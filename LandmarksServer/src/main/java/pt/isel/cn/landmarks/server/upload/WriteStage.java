@@ -0,0 +1,141 @@
+package pt.isel.cn.landmarks.server.upload;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs the blocking storage operations of a single upload, in submission
+ * order, on a shared I/O executor.
+ * <p>
+ * This keeps slow blob writes off the gRPC transport threads, while the
+ * caller keeps hashing the next chunks in parallel. After a task fails, the
+ * remaining ones are skipped, except those submitted with {@link #submitAlways(IoTask)}.
+ */
+public class WriteStage {
+    /**
+     * A blocking storage operation.
+     */
+    @FunctionalInterface
+    public interface IoTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * A blocking storage operation that produces a value.
+     */
+    @FunctionalInterface
+    public interface IoCall<T> {
+        T call() throws Exception;
+    }
+
+    private record Task<T>(IoCall<T> action, boolean always, CompletableFuture<T> future, Runnable after) {}
+
+    private final Executor executor;
+    private final UploadBudget budget;
+    private final Consumer<Throwable> onFailure;
+    private final Queue<Task<?>> tasks = new ArrayDeque<>();
+    private boolean running = false;
+    private volatile Throwable failure;
+
+    /**
+     * @param executor The executor that runs the storage operations.
+     * @param budget The server-wide budget charged for queued bytes.
+     * @param onFailure Called once, on the I/O thread, when the first task fails.
+     */
+    public WriteStage(Executor executor, UploadBudget budget, Consumer<Throwable> onFailure) {
+        this.executor = executor;
+        this.budget = budget;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Queues a write of the given number of bytes, charging them to the budget until it finishes.
+     *
+     * @param bytes The number of bytes held in memory by the write.
+     * @param action The write operation.
+     * @param onWritten Called once the write finished or was skipped.
+     */
+    public void write(long bytes, IoTask action, Runnable onWritten) {
+        budget.reserve(bytes);
+        enqueue(asCall(action), false, () -> {
+            budget.release(bytes);
+            onWritten.run();
+        });
+    }
+
+    public CompletableFuture<Void> submit(IoTask action) {
+        return enqueue(asCall(action), false, null);
+    }
+
+    public <T> CompletableFuture<T> call(IoCall<T> action) {
+        return enqueue(action, false, null);
+    }
+
+    /**
+     * Queues an operation that runs even if an earlier one failed, e.g. to release resources.
+     */
+    public CompletableFuture<Void> submitAlways(IoTask action) {
+        return enqueue(asCall(action), true, null);
+    }
+
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    private static IoCall<Void> asCall(IoTask action) {
+        return () -> {
+            action.run();
+            return null;
+        };
+    }
+
+    private <T> CompletableFuture<T> enqueue(IoCall<T> action, boolean always, Runnable after) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (tasks) {
+            tasks.add(new Task<>(action, always, future, after));
+            if (running) {
+                return future;
+            }
+            running = true;
+        }
+        executor.execute(this::drain);
+        return future;
+    }
+
+    private void drain() {
+        while (true) {
+            Task<?> task;
+            synchronized (tasks) {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            runTask(task);
+        }
+    }
+
+    private <T> void runTask(Task<T> task) {
+        try {
+            if (failure != null && !task.always()) {
+                task.future().completeExceptionally(failure);
+            } else {
+                task.future().complete(task.action().call());
+            }
+        } catch (Exception e) {
+            task.future().completeExceptionally(e);
+            if (failure == null) {
+                failure = e;
+                onFailure.accept(e);
+            }
+        } finally {
+            if (task.after() != null) {
+                task.after().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package pt.isel.cn.landmarks.server.watch;
+
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client's watch of the results of a request.
+ */
+public class ResultsWatch implements AutoCloseable {
+    private final CompletableFuture<AnalysisMetadata> result;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    ResultsWatch(CompletableFuture<AnalysisMetadata> result, Runnable onClose) {
+        this.result = result;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return A future completed with the analysis once it succeeds or fails, or failed if watching it failed.
+     */
+    public CompletableFuture<AnalysisMetadata> result() {
+        return result;
+    }
+
+    /**
+     * Stops watching the results. Closing a watch more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package pt.isel.cn.landmarks.server.watch;
+
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.storage.metadata.MetadataStorage;
+import pt.isel.cn.landmarks.storage.metadata.MetadataSubscription;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shares the watches of analysis results between the clients waiting for them.
+ * <p>
+ * The first client watching a request opens a listener on the metadata
+ * storage, and later clients of the same request reuse it. The listener is
+ * removed when the analysis finishes, watching it fails, or the last client
+ * stops watching.
+ */
+public class ResultsWatchRegistry {
+    private final MetadataStorage metadataStorage;
+    private final Map<String, SharedWatch> watches = new HashMap<>();
+
+    private static class SharedWatch {
+        final CompletableFuture<AnalysisMetadata> result = new CompletableFuture<>();
+        MetadataSubscription subscription;
+        int watchers = 0;
+    }
+
+    public ResultsWatchRegistry(MetadataStorage metadataStorage) {
+        this.metadataStorage = metadataStorage;
+    }
+
+    /**
+     * Starts watching the results of a request.
+     *
+     * @param requestId The unique identifier for the request.
+     * @return The watch, which must be closed once the client stops waiting.
+     */
+    public ResultsWatch watch(String requestId) {
+        SharedWatch shared;
+        boolean first;
+        synchronized (watches) {
+            shared = watches.computeIfAbsent(requestId, id -> new SharedWatch());
+            first = shared.watchers++ == 0 && shared.subscription == null;
+        }
+
+        if (first) {
+            MetadataSubscription subscription = metadataStorage.watchAnalysisMetadata(requestId, metadata -> {
+                synchronized (watches) {
+                    watches.remove(requestId, shared);
+                }
+                shared.result.complete(metadata);
+            }, error -> {
+                // Later clients of the request open a new listener.
+                synchronized (watches) {
+                    watches.remove(requestId, shared);
+                }
+                shared.result.completeExceptionally(error);
+            });
+            synchronized (watches) {
+                shared.subscription = subscription;
+            }
+            if (shared.result.isDone() || isAbandoned(requestId, shared)) {
+                subscription.cancel();
+            }
+        }
+
+        return new ResultsWatch(shared.result.copy(), () -> release(requestId, shared));
+    }
+
+    /**
+     * @return The number of requests with an open listener.
+     */
+    public int activeWatches() {
+        synchronized (watches) {
+            return watches.size();
+        }
+    }
+
+    private void release(String requestId, SharedWatch shared) {
+        MetadataSubscription subscription;
+        synchronized (watches) {
+            if (--shared.watchers > 0) {
+                return;
+            }
+            watches.remove(requestId, shared);
+            subscription = shared.subscription;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private boolean isAbandoned(String requestId, SharedWatch shared) {
+        synchronized (watches) {
+            return watches.get(requestId) != shared;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package pt.isel.cn.landmarks.storage.blob;
 
 import com.google.cloud.WriteChannel;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface represents a BLOB storage system.
  * <p>
@@ -25,6 +27,17 @@ public interface BlobStorage {
      */
     public void upload(String bucketName, String blobName, String contentType, byte[] data);
 
+    /**
+     * Uploads a file to the cloud storage without blocking the caller.
+     *
+     * @param bucketName The name of the bucket where the file will be stored.
+     * @param blobName The unique identifier for the file.
+     * @param contentType The content type of the file (e.g., "image/png").
+     * @param data The byte array representing the file data.
+     * @return A future completed once the file is stored.
+     */
+    public CompletableFuture<Void> uploadAsync(String bucketName, String blobName, String contentType, byte[] data);
+
     /**
      * Downloads a file from the cloud storage.
      *
@@ -33,6 +46,15 @@ public interface BlobStorage {
      */
     public byte[] download(String bucketName, String blobName);
 
+    /**
+     * Downloads a file from the cloud storage without blocking the caller.
+     *
+     * @param bucketName The name of the bucket where the file is stored.
+     * @param blobName The unique identifier for the file.
+     * @return A future completed with the file data.
+     */
+    public CompletableFuture<byte[]> downloadAsync(String bucketName, String blobName);
+
     /**
      * Deletes a file from the cloud storage.
      *
@@ -41,6 +63,34 @@ public interface BlobStorage {
      */
     public void delete(String bucketName, String blobName);
 
+    /**
+     * Deletes a file from the cloud storage without blocking the caller.
+     *
+     * @param bucketName The name of the bucket where the file is stored.
+     * @param blobName The unique identifier for the file.
+     * @return A future completed once the file is deleted.
+     */
+    public CompletableFuture<Void> deleteAsync(String bucketName, String blobName);
+
+    /**
+     * Changes the content type of a file in the cloud storage.
+     *
+     * @param bucketName The name of the bucket where the file is stored.
+     * @param blobName The unique identifier for the file.
+     * @param contentType The new content type of the file (e.g., "image/png").
+     */
+    public void updateContentType(String bucketName, String blobName, String contentType);
+
+    /**
+     * Changes the content type of a file in the cloud storage without blocking the caller.
+     *
+     * @param bucketName The name of the bucket where the file is stored.
+     * @param blobName The unique identifier for the file.
+     * @param contentType The new content type of the file (e.g., "image/png").
+     * @return A future completed once the content type is changed.
+     */
+    public CompletableFuture<Void> updateContentTypeAsync(String bucketName, String blobName, String contentType);
+
     /**
      * Makes a file public in the cloud storage.
      * <p>
@@ -67,6 +117,15 @@ public interface BlobStorage {
      */
     public boolean blobExists(String bucketName, String blobName);
 
+    /**
+     * Checks if a blob exists in the cloud storage without blocking the caller.
+     * @param bucketName - The name of the bucket where the file is stored.
+     * @param blobName - The unique identifier for the file.
+     *
+     * @return A future completed with true if the blob exists, false otherwise.
+     */
+    public CompletableFuture<Boolean> blobExistsAsync(String bucketName, String blobName);
+
     /**
      * Gets a write channel for a blob in the cloud storage.
      *
@@ -77,4 +136,25 @@ public interface BlobStorage {
      * @return The write channel for the blob.
      */
     WriteChannel getWriteChannel(String bucketName, String blobName, String contentType);
+
+    /**
+     * Captures the state of an unfinished upload so it can be resumed later.
+     * <p>
+     * The captured state includes any bytes buffered by the channel, so every
+     * byte written before the capture is part of the resumed upload.
+     *
+     * @param channel - The write channel of the upload.
+     *
+     * @return The serialized state of the upload.
+     */
+    byte[] captureWriteChannel(WriteChannel channel);
+
+    /**
+     * Restores a write channel from a state captured by {@link #captureWriteChannel(WriteChannel)}.
+     *
+     * @param state - The serialized state of the upload.
+     *
+     * @return A write channel positioned right after the last captured byte.
+     */
+    WriteChannel restoreWriteChannel(byte[] state);
 }
@@ -0,0 +1,72 @@
+package pt.isel.cn.landmarks.storage.blob;
+
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Detects the content type of stored photos.
+ */
+public class ContentTypes {
+    public static final String UNKNOWN = "application/octet-stream";
+    public static final String JPEG = "image/jpeg";
+    public static final String PNG = "image/png";
+
+    private static final byte[] JPEG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] TIFF_LITTLE_ENDIAN_SIGNATURE = {'I', 'I', 42, 0};
+    private static final byte[] TIFF_BIG_ENDIAN_SIGNATURE = {'M', 'M', 0, 42};
+
+    private ContentTypes() {}
+
+    /**
+     * Guesses the content type of a photo from its file name.
+     *
+     * @param name The name of the photo, such as "tower.jpg".
+     * @return The content type, or {@link #UNKNOWN} if the extension is not an image one.
+     */
+    public static String fromName(String name) {
+        String contentType = name == null ? null : URLConnection.guessContentTypeFromName(name.toLowerCase());
+        if (contentType == null && name != null && name.toLowerCase().endsWith(".webp")) {
+            contentType = "image/webp";
+        }
+        return contentType != null && contentType.startsWith("image/") ? contentType : UNKNOWN;
+    }
+
+    /**
+     * Detects the content type of a photo from its first bytes.
+     *
+     * @param data The photo, or at least its first 12 bytes.
+     * @return The content type, or {@link #UNKNOWN} if the format is not recognised.
+     */
+    public static String fromBytes(byte[] data) {
+        if (startsWith(data, 0, JPEG_SIGNATURE)) {
+            return JPEG;
+        }
+        if (startsWith(data, 0, PNG_SIGNATURE)) {
+            return PNG;
+        }
+        if (startsWith(data, 0, ascii("GIF8"))) {
+            return "image/gif";
+        }
+        if (startsWith(data, 0, ascii("RIFF")) && startsWith(data, 8, ascii("WEBP"))) {
+            return "image/webp";
+        }
+        if (startsWith(data, 0, ascii("BM"))) {
+            return "image/bmp";
+        }
+        if (startsWith(data, 0, TIFF_LITTLE_ENDIAN_SIGNATURE) || startsWith(data, 0, TIFF_BIG_ENDIAN_SIGNATURE)) {
+            return "image/tiff";
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] signature) {
+        return data.length >= offset + signature.length
+                && Arrays.equals(data, offset, offset + signature.length, signature, 0, signature.length);
+    }
+
+    private static byte[] ascii(String signature) {
+        return signature.getBytes(StandardCharsets.US_ASCII);
+    }
+}
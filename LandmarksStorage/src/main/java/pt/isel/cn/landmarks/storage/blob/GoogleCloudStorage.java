@@ -1,23 +1,45 @@
 package pt.isel.cn.landmarks.storage.blob;
 
 import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
 import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Blob storage backed by Google Cloud Storage.
+ * <p>
+ * The Cloud Storage client only offers blocking calls, so the asynchronous
+ * operations run the blocking ones on an executor.
+ */
 public class GoogleCloudStorage implements BlobStorage {
     private final Storage storage;
+    private final Executor executor;
 
+    /**
+     * Runs the asynchronous operations on virtual threads.
+     */
     public GoogleCloudStorage(Storage storage) {
+        this(storage, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * @param storage The Cloud Storage client.
+     * @param executor The executor that runs the asynchronous operations.
+     */
+    public GoogleCloudStorage(Storage storage, Executor executor) {
         this.storage = storage;
+        this.executor = executor;
     }
 
     @Override
@@ -38,6 +60,11 @@ public class GoogleCloudStorage implements BlobStorage {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> uploadAsync(String bucketName, String blobName, String contentType, byte[] data) {
+        return CompletableFuture.runAsync(() -> upload(bucketName, blobName, contentType, data), executor);
+    }
+
     @Override
     public byte[] download(String bucketName, String blobName) {
         BlobId blobId = BlobId.of(bucketName, blobName);
@@ -51,19 +78,24 @@ public class GoogleCloudStorage implements BlobStorage {
             return blob.getContent();
         }
 
-        try (ReadChannel readChannel = blob.reader(); WritableByteChannel writableByteChannel = Channels.newChannel(Files.newOutputStream(Paths.get(blobName)))) {
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            while (readChannel.read(buffer) > 0) {
-                buffer.flip();
-                writableByteChannel.write(buffer);
+        try (ReadChannel readChannel = blob.reader()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.toIntExact(blob.getSize()));
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (readChannel.read(buffer) >= 0) {
+                output.write(buffer.array(), 0, buffer.position());
                 buffer.clear();
             }
-            return buffer.array();
+            return output.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException("Error downloading blob: " + blobName, e);
         }
     }
 
+    @Override
+    public CompletableFuture<byte[]> downloadAsync(String bucketName, String blobName) {
+        return CompletableFuture.supplyAsync(() -> download(bucketName, blobName), executor);
+    }
+
     @Override
     public void delete(String bucketName, String blobName) {
         BlobId blobId = BlobId.of(bucketName, blobName);
@@ -79,6 +111,22 @@ public class GoogleCloudStorage implements BlobStorage {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> deleteAsync(String bucketName, String blobName) {
+        return CompletableFuture.runAsync(() -> delete(bucketName, blobName), executor);
+    }
+
+    @Override
+    public void updateContentType(String bucketName, String blobName, String contentType) {
+        BlobId blobId = BlobId.of(bucketName, blobName);
+        storage.update(BlobInfo.newBuilder(blobId).setContentType(contentType).build());
+    }
+
+    @Override
+    public CompletableFuture<Void> updateContentTypeAsync(String bucketName, String blobName, String contentType) {
+        return CompletableFuture.runAsync(() -> updateContentType(bucketName, blobName, contentType), executor);
+    }
+
     @Override
     public void makePublic(String bucketName, String blobName) {
         BlobId blobId = BlobId.of(bucketName, blobName);
@@ -104,6 +152,11 @@ public class GoogleCloudStorage implements BlobStorage {
         return blob != null;
     }
 
+    @Override
+    public CompletableFuture<Boolean> blobExistsAsync(String bucketName, String blobName) {
+        return CompletableFuture.supplyAsync(() -> blobExists(bucketName, blobName), executor);
+    }
+
     @Override
     public WriteChannel getWriteChannel(String bucketName, String blobName, String contentType) {
         BlobId blobId = BlobId.of(bucketName, blobName);
@@ -113,4 +166,28 @@ public class GoogleCloudStorage implements BlobStorage {
                 .build();
         return storage.writer(blobInfo);
     }
+
+    @Override
+    public byte[] captureWriteChannel(WriteChannel channel) {
+        RestorableState<WriteChannel> state = channel.capture();
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream();
+             ObjectOutputStream objectOutput = new ObjectOutputStream(output)
+        ) {
+            objectOutput.writeObject(state);
+            objectOutput.flush();
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Error capturing write channel state", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public WriteChannel restoreWriteChannel(byte[] state) {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            return ((RestorableState<WriteChannel>) input.readObject()).restore();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Error restoring write channel state", e);
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import java.time.Instant;
+
+/**
+ * The outcome of claiming an analysis for processing.
+ *
+ * @param outcome Whether the analysis was claimed and, if not, why.
+ * @param leaseExpiresAt When the lease on the analysis expires, if it was claimed or is held by another owner.
+ * @param attempts The detection attempts made by earlier deliveries of the request, if it was claimed.
+ */
+public record AnalysisClaim(Outcome outcome, Instant leaseExpiresAt, int attempts) {
+    public static final String LEASE_OWNER = "leaseOwner";
+    public static final String LEASE_EXPIRES_AT = "leaseExpiresAt";
+    public static final String DETECTION_ATTEMPTS = "detectionAttempts";
+
+    public enum Outcome {
+        /**
+         * The caller holds the lease until it expires.
+         */
+        CLAIMED,
+
+        /**
+         * Another owner holds an unexpired lease.
+         */
+        HELD,
+
+        /**
+         * The analysis already succeeded or failed, so there is nothing left to do.
+         */
+        FINISHED,
+
+        /**
+         * There is no such analysis.
+         */
+        NOT_FOUND
+    }
+
+    public static AnalysisClaim claimed(Instant leaseExpiresAt, int attempts) {
+        return new AnalysisClaim(Outcome.CLAIMED, leaseExpiresAt, attempts);
+    }
+
+    public static AnalysisClaim held(Instant leaseExpiresAt) {
+        return new AnalysisClaim(Outcome.HELD, leaseExpiresAt, 0);
+    }
+
+    public static AnalysisClaim finished() {
+        return new AnalysisClaim(Outcome.FINISHED, null, 0);
+    }
+
+    public static AnalysisClaim notFound() {
+        return new AnalysisClaim(Outcome.NOT_FOUND, null, 0);
+    }
+}
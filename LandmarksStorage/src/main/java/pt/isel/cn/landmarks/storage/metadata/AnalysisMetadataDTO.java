@@ -1,5 +1,53 @@
 package pt.isel.cn.landmarks.storage.metadata;
 
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
 import pt.isel.cn.landmarks.domain.Status;
 
-public record AnalysisMetadataDTO(String photoId, String photoName, Status status) {}
+import java.util.List;
+
+/**
+ * The analysis document.
+ * <p>
+ * The landmarks are only set in documents written with the {@link MetadataLayout#EMBEDDED} layout.
+ */
+public record AnalysisMetadataDTO(
+        String photoId,
+        String photoName,
+        Status status,
+        LandmarkMetadata topLandmark,
+        Double maxConfidence,
+        Integer landmarkCount,
+        List<LandmarkMetadata> landmarks
+) {
+    public static final String LANDMARKS = "landmarks";
+
+    public static AnalysisMetadataDTO of(AnalysisMetadata metadata, MetadataLayout layout) {
+        LandmarkSummary summary = LandmarkSummary.of(metadata.landmarks());
+        return new AnalysisMetadataDTO(
+                metadata.photoId(),
+                metadata.photoName(),
+                metadata.status(),
+                summary.topLandmark(),
+                summary.maxConfidence(),
+                summary.landmarkCount(),
+                layout == MetadataLayout.EMBEDDED ? landmarksOrEmpty(metadata.landmarks()) : null
+        );
+    }
+
+    public static List<LandmarkMetadata> landmarksOrEmpty(List<LandmarkMetadata> landmarks) {
+        return landmarks == null ? List.of() : landmarks;
+    }
+
+    /**
+     * @return The analysis with only its most confident landmark.
+     */
+    public AnalysisMetadata toSummaryMetadata() {
+        return new AnalysisMetadata(
+                photoId,
+                photoName,
+                status,
+                topLandmark == null ? List.of() : List.of(topLandmark)
+        );
+    }
+}
@@ -0,0 +1,16 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+import pt.isel.cn.landmarks.domain.Status;
+
+import java.util.List;
+
+/**
+ * The outcome of an analysis, as stored by a bulk update.
+ *
+ * @param requestId The unique identifier for the request.
+ * @param photoId The ID of the analysed photo.
+ * @param landmarks The detected landmarks.
+ * @param status The status of the analysis.
+ */
+public record AnalysisUpdate(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status) {}
@@ -0,0 +1,207 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+import pt.isel.cn.landmarks.domain.Status;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache in front of another metadata storage.
+ * <p>
+ * Analyses that succeeded or failed never change, so they are kept until
+ * evicted. Analyses still in progress, or dead-lettered and waiting to be
+ * replayed, are kept for a short time only, which bounds how long a client
+ * polling for results may see a stale status.
+ * Eviction is frequency-aware, so a burst of one-off lookups does not push
+ * out results that are polled often.
+ * <p>
+ * Updates made through this storage invalidate the cached entry. Updates made
+ * by other processes become visible once the in-progress entry expires.
+ * <p>
+ * The cache holds futures, so concurrent lookups of an analysis that is not
+ * cached yet share a single read from the underlying storage.
+ */
+public class CachingMetadataStorage implements MetadataStorage {
+    private static final int STATS_LOG_INTERVAL = 1000;
+    private static final Duration NEVER_EXPIRES = Duration.ofNanos(Long.MAX_VALUE);
+
+    private final MetadataStorage delegate;
+    private final AsyncCache<String, AnalysisMetadata> cache;
+    private final AtomicLong lookups = new AtomicLong();
+
+    private static final Logger logger = Logger.getLogger(CachingMetadataStorage.class.getName());
+
+    /**
+     * @param delegate The storage that holds the metadata.
+     * @param maximumSize The maximum number of cached analyses.
+     * @param inProgressTtl How long an analysis in progress is cached.
+     */
+    public CachingMetadataStorage(MetadataStorage delegate, long maximumSize, Duration inProgressTtl) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(Expiry.creating((String requestId, AnalysisMetadata metadata) ->
+                        metadata.status() == Status.SUCCESS || metadata.status() == Status.FAILURE
+                                ? NEVER_EXPIRES
+                                : inProgressTtl))
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Wraps a storage with a cache configured from the environment.
+     *
+     * @param delegate The storage that holds the metadata.
+     * @return The caching storage.
+     */
+    public static CachingMetadataStorage fromEnv(MetadataStorage delegate) {
+        return new CachingMetadataStorage(
+                delegate,
+                Config.getEnvLong("METADATA_CACHE_SIZE", 10_000),
+                Duration.ofMillis(Config.getEnvLong("METADATA_CACHE_IN_PROGRESS_TTL_MS", 2000))
+        );
+    }
+
+    @Override
+    public void saveAnalysisMetadata(String requestId, AnalysisMetadata metadata) {
+        delegate.saveAnalysisMetadata(requestId, metadata);
+        cache.synchronous().invalidate(requestId);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAnalysisMetadataAsync(String requestId, AnalysisMetadata metadata) {
+        return delegate.saveAnalysisMetadataAsync(requestId, metadata)
+                .thenRun(() -> cache.synchronous().invalidate(requestId));
+    }
+
+    @Override
+    public void updateAnalysisMetadata(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status) {
+        delegate.updateAnalysisMetadata(requestId, photoId, landmarks, status);
+        cache.synchronous().invalidate(requestId);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAnalysisMetadataAsync(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status) {
+        return delegate.updateAnalysisMetadataAsync(requestId, photoId, landmarks, status)
+                .thenRun(() -> cache.synchronous().invalidate(requestId));
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> updateAnalysisMetadataBatchAsync(List<AnalysisUpdate> updates) {
+        return delegate.updateAnalysisMetadataBatchAsync(updates)
+                .thenApply(failed -> {
+                    cache.synchronous().invalidateAll(updates.stream().map(AnalysisUpdate::requestId).toList());
+                    return failed;
+                });
+    }
+
+    @Override
+    public CompletableFuture<AnalysisClaim> claimAnalysisAsync(String requestId, String owner, Duration leaseDuration) {
+        return delegate.claimAnalysisAsync(requestId, owner, leaseDuration);
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAnalysisAsync(String requestId, String owner) {
+        return delegate.releaseAnalysisAsync(requestId, owner);
+    }
+
+    @Override
+    public CompletableFuture<Void> recordDetectionAttemptsAsync(String requestId, int attempts) {
+        return delegate.recordDetectionAttemptsAsync(requestId, attempts);
+    }
+
+    @Override
+    public AnalysisMetadata getAnalysisMetadata(String requestId) {
+        try {
+            return getAnalysisMetadataAsync(requestId).join();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<AnalysisMetadata> getAnalysisMetadataAsync(String requestId) {
+        if (lookups.incrementAndGet() % STATS_LOG_INTERVAL == 0) {
+            CacheStats stats = getStats();
+            logger.info("Metadata cache: " + stats.hitCount() + " hits, " + stats.missCount() + " misses, hit ratio " + stats.hitRate());
+        }
+        // Missing analyses and failed reads are dropped from the cache once the future completes.
+        return cache.get(requestId, (key, executor) -> delegate.getAnalysisMetadataAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AnalysisMetadata>> getAnalysisMetadataBatchAsync(Collection<String> requestIds) {
+        // Only the analyses that are not cached are read, in a single batch.
+        return cache.getAll(requestIds, (missing, executor) -> delegate.getAnalysisMetadataBatchAsync(List.copyOf(missing)));
+    }
+
+    @Override
+    public MetadataSubscription watchAnalysisMetadata(
+            String requestId,
+            Consumer<AnalysisMetadata> listener,
+            Consumer<Throwable> errorListener
+    ) {
+        return delegate.watchAnalysisMetadata(requestId, metadata -> {
+            // Replaces a cached in-progress entry before it expires.
+            if (metadata != null) {
+                cache.put(requestId, CompletableFuture.completedFuture(metadata));
+            }
+            listener.accept(metadata);
+        }, errorListener);
+    }
+
+    @Override
+    public MetadataSubscription watchCompletedAnalyses(
+            Instant since,
+            BiConsumer<String, AnalysisMetadata> listener,
+            Consumer<Throwable> errorListener
+    ) {
+        return delegate.watchCompletedAnalyses(since, listener, errorListener);
+    }
+
+    @Override
+    public CompletableFuture<AnalysisMetadata> getLatestSuccessfulAnalysisAsync(String photoId) {
+        return delegate.getLatestSuccessfulAnalysisAsync(photoId);
+    }
+
+    @Override
+    public AnalysisMetadata[] getAnalysisMetadataByConfidenceThreshold(double confidenceThreshold) {
+        return delegate.getAnalysisMetadataByConfidenceThreshold(confidenceThreshold);
+    }
+
+    @Override
+    public CompletableFuture<AnalysisMetadata[]> getAnalysisMetadataByConfidenceThresholdAsync(double confidenceThreshold) {
+        return delegate.getAnalysisMetadataByConfidenceThresholdAsync(confidenceThreshold);
+    }
+
+    @Override
+    public MetadataPage getAnalysisMetadataPageByConfidenceThreshold(double confidenceThreshold, int pageSize, String cursor) {
+        return delegate.getAnalysisMetadataPageByConfidenceThreshold(confidenceThreshold, pageSize, cursor);
+    }
+
+    @Override
+    public CompletableFuture<MetadataPage> getAnalysisMetadataPageByConfidenceThresholdAsync(double confidenceThreshold, int pageSize, String cursor) {
+        return delegate.getAnalysisMetadataPageByConfidenceThresholdAsync(confidenceThreshold, pageSize, cursor);
+    }
+
+    public CacheStats getStats() {
+        return cache.synchronous().stats();
+    }
+}
@@ -1,41 +1,78 @@
 package pt.isel.cn.landmarks.storage.metadata;
 
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
 import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.WriteBatch;
 import pt.isel.cn.landmarks.domain.AnalysisMetadata;
 import pt.isel.cn.landmarks.domain.Config;
 import pt.isel.cn.landmarks.domain.LandmarkMetadata;
 import pt.isel.cn.landmarks.domain.Status;
+import pt.isel.cn.landmarks.storage.util.Futures;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class FirestoreMetadataStorage implements MetadataStorage {
+    private static final int MAX_BATCH_WRITES = 500;
+    private static final int MAX_BATCH_READS = 500;
+
     private final Firestore firestore;
+    private final MetadataLayout layout;
 
     public FirestoreMetadataStorage(Firestore firestore) {
+        this(firestore, MetadataLayout.SUBCOLLECTION);
+    }
+
+    /**
+     * @param firestore The Firestore client.
+     * @param layout The layout used to write the landmarks. Both layouts are always readable.
+     */
+    public FirestoreMetadataStorage(Firestore firestore, MetadataLayout layout) {
         this.firestore = firestore;
+        this.layout = layout;
     }
 
     @Override
     public void saveAnalysisMetadata(String requestId, AnalysisMetadata metadata) {
+        saveAnalysisMetadataAsync(requestId, metadata).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAnalysisMetadataAsync(String requestId, AnalysisMetadata metadata) {
         WriteBatch batch = firestore.batch();
 
-        batch.set(
-                firestore.collection(Config.METADATA_COLLECTION)
-                        .document(requestId),
-                new AnalysisMetadataDTO(
-                        metadata.photoId(),
-                        metadata.photoName(),
-                        metadata.status()
-                )
-        );
+        DocumentReference document = firestore.collection(Config.METADATA_COLLECTION).document(requestId);
+        batch.set(document, AnalysisMetadataDTO.of(metadata, layout));
 
-        if (metadata.landmarks() != null) {
+        if (metadata.status() != Status.IN_PROGRESS) {
+            batch.update(document, LandmarkSummary.COMPLETED_AT, FieldValue.serverTimestamp());
+        }
+
+        if (layout == MetadataLayout.SUBCOLLECTION && metadata.landmarks() != null) {
             for (int i = 0; i < metadata.landmarks().size(); i++) {
                 LandmarkMetadata landmark = metadata.landmarks().get(i);
                 batch.set(
@@ -48,64 +85,200 @@ public class FirestoreMetadataStorage implements MetadataStorage {
             }
         }
 
-        batch.commit();
+        return Futures.toCompletableFuture(batch.commit()).thenApply(writeResults -> null);
+    }
+
+    @Override
+    public void updateAnalysisMetadata(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status) {
+        updateAnalysisMetadataAsync(requestId, photoId, landmarks, status).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAnalysisMetadataAsync(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status) {
+        WriteBatch batch = firestore.batch();
+        addUpdate(batch, new AnalysisUpdate(requestId, photoId, landmarks, status));
+        return Futures.toCompletableFuture(batch.commit()).thenApply(writeResults -> null);
     }
 
     @Override
-    public void updateAnalysisMetadata(String requestId, List<LandmarkMetadata> landmarks, Status status) {
+    public CompletableFuture<Set<String>> updateAnalysisMetadataBatchAsync(List<AnalysisUpdate> updates) {
+        List<CompletableFuture<List<String>>> commits = new ArrayList<>();
+
         WriteBatch batch = firestore.batch();
+        List<String> batchRequestIds = new ArrayList<>();
+        int batchWrites = 0;
+
+        for (AnalysisUpdate update : updates) {
+            int writes = countWrites(update);
+            if (batchWrites > 0 && batchWrites + writes > MAX_BATCH_WRITES) {
+                commits.add(commitBatch(batch, batchRequestIds));
+                batch = firestore.batch();
+                batchRequestIds = new ArrayList<>();
+                batchWrites = 0;
+            }
+            addUpdate(batch, update);
+            batchRequestIds.add(update.requestId());
+            batchWrites += writes;
+        }
+        if (batchWrites > 0) {
+            commits.add(commitBatch(batch, batchRequestIds));
+        }
+
+        return CompletableFuture.allOf(commits.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Set<String> failed = new HashSet<>();
+                    commits.forEach(commit -> failed.addAll(commit.join()));
+                    return failed;
+                });
+    }
+
+    /**
+     * Commits a batch of updates.
+     *
+     * @return A future completed with the request IDs in the batch if the commit failed, or an empty list otherwise.
+     */
+    private CompletableFuture<List<String>> commitBatch(WriteBatch batch, List<String> requestIds) {
+        return Futures.toCompletableFuture(batch.commit())
+                .handle((writeResults, error) -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                        return requestIds;
+                    }
+                    return List.of();
+                });
+    }
 
+    private void addUpdate(WriteBatch batch, AnalysisUpdate update) {
+        Map<String, Object> fields = LandmarkSummary.of(update.landmarks()).toFields();
+        fields.put("status", update.status());
+        if (layout == MetadataLayout.EMBEDDED) {
+            fields.put(AnalysisMetadataDTO.LANDMARKS, AnalysisMetadataDTO.landmarksOrEmpty(update.landmarks()));
+        } else {
+            // Reads prefer the embedded landmarks, so a copy left by a migration would hide the subcollection.
+            fields.put(AnalysisMetadataDTO.LANDMARKS, FieldValue.delete());
+        }
+        if (update.status() != Status.IN_PROGRESS) {
+            fields.put(LandmarkSummary.COMPLETED_AT, FieldValue.serverTimestamp());
+            fields.put(AnalysisClaim.LEASE_OWNER, FieldValue.delete());
+            fields.put(AnalysisClaim.LEASE_EXPIRES_AT, FieldValue.delete());
+            fields.put(AnalysisClaim.DETECTION_ATTEMPTS, FieldValue.delete());
+        }
         batch.update(
                 firestore.collection(Config.METADATA_COLLECTION)
-                        .document(requestId),
-                "status", status
+                        .document(update.requestId()),
+                fields
         );
 
-        if (landmarks != null) {
-            for (int i = 0; i < landmarks.size(); i++) {
-                LandmarkMetadata landmark = landmarks.get(i);
+        if (update.status() == Status.SUCCESS) {
+            batch.set(
+                    firestore.collection(Config.PHOTO_INDEX_COLLECTION)
+                            .document(update.photoId()),
+                    Map.of(
+                            "requestId", update.requestId(),
+                            "updatedAt", FieldValue.serverTimestamp()
+                    )
+            );
+        }
+
+        if (layout == MetadataLayout.SUBCOLLECTION && update.landmarks() != null) {
+            for (int i = 0; i < update.landmarks().size(); i++) {
+                LandmarkMetadata landmark = update.landmarks().get(i);
                 batch.set(
                         firestore.collection(Config.METADATA_COLLECTION)
-                                .document(requestId)
+                                .document(update.requestId())
                                 .collection("landmarks")
-                                .document(requestId + "_" + i),
+                                .document(update.requestId() + "_" + i),
                         landmark
                 );
             }
         }
+    }
 
-        batch.commit();
+    /**
+     * @return The number of document writes {@link #addUpdate(WriteBatch, AnalysisUpdate)} adds to a batch.
+     */
+    private int countWrites(AnalysisUpdate update) {
+        int writes = 1;
+        if (update.status() == Status.SUCCESS) {
+            writes++;
+        }
+        if (layout == MetadataLayout.SUBCOLLECTION && update.landmarks() != null) {
+            writes += update.landmarks().size();
+        }
+        return writes;
     }
 
     @Override
-    public AnalysisMetadata getAnalysisMetadata(String requestId) {
-        try {
-            AnalysisMetadataDTO metadata = firestore.collection(Config.METADATA_COLLECTION)
-                    .document(requestId)
-                    .get()
-                    .get()
-                    .toObject(AnalysisMetadataDTO.class);
-
-            List<LandmarkMetadata> landmarks = firestore.collection(Config.METADATA_COLLECTION)
-                    .document(requestId)
-                    .collection("landmarks")
-                    .get()
-                    .get()
-                    .getDocuments()
-                    .stream()
-                    .map(doc -> doc.toObject(LandmarkMetadata.class))
-                    .toList();
-
-            if (metadata == null) {
-                return null;
+    public CompletableFuture<AnalysisClaim> claimAnalysisAsync(String requestId, String owner, Duration leaseDuration) {
+        DocumentReference document = firestore.collection(Config.METADATA_COLLECTION).document(requestId);
+
+        return Futures.toCompletableFuture(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(document).get();
+            if (!snapshot.exists()) {
+                return AnalysisClaim.notFound();
+            }
+            String status = snapshot.getString("status");
+            boolean deadLettered = Status.DEAD_LETTERED.name().equals(status);
+            if (!deadLettered && !Status.IN_PROGRESS.name().equals(status)) {
+                return AnalysisClaim.finished();
             }
 
-            return new AnalysisMetadata(
-                    metadata.photoId(),
-                    metadata.photoName(),
-                    metadata.status(),
-                    landmarks
-            );
+            Instant now = Instant.now();
+            String leaseOwner = snapshot.getString(AnalysisClaim.LEASE_OWNER);
+            Timestamp leaseExpiresAt = snapshot.getTimestamp(AnalysisClaim.LEASE_EXPIRES_AT);
+            if (leaseOwner != null && !leaseOwner.equals(owner) && leaseExpiresAt != null) {
+                Instant expiresAt = Instant.ofEpochSecond(leaseExpiresAt.getSeconds(), leaseExpiresAt.getNanos());
+                if (expiresAt.isAfter(now)) {
+                    return AnalysisClaim.held(expiresAt);
+                }
+            }
+
+            Instant expiresAt = now.plus(leaseDuration);
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(AnalysisClaim.LEASE_OWNER, owner);
+            fields.put(AnalysisClaim.LEASE_EXPIRES_AT, Timestamp.ofTimeSecondsAndNanos(expiresAt.getEpochSecond(), expiresAt.getNano()));
+            Long attempts = snapshot.getLong(AnalysisClaim.DETECTION_ATTEMPTS);
+            if (deadLettered) {
+                // A replayed dead letter starts over.
+                fields.put("status", Status.IN_PROGRESS);
+                fields.put(LandmarkSummary.COMPLETED_AT, FieldValue.delete());
+                fields.put(AnalysisClaim.DETECTION_ATTEMPTS, FieldValue.delete());
+                attempts = null;
+            }
+            transaction.update(document, fields);
+            return AnalysisClaim.claimed(expiresAt, attempts == null ? 0 : attempts.intValue());
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseAnalysisAsync(String requestId, String owner) {
+        DocumentReference document = firestore.collection(Config.METADATA_COLLECTION).document(requestId);
+
+        return Futures.toCompletableFuture(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(document).get();
+            if (snapshot.exists() && owner.equals(snapshot.getString(AnalysisClaim.LEASE_OWNER))) {
+                transaction.update(document, Map.of(
+                        AnalysisClaim.LEASE_OWNER, FieldValue.delete(),
+                        AnalysisClaim.LEASE_EXPIRES_AT, FieldValue.delete()
+                ));
+            }
+            return null;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> recordDetectionAttemptsAsync(String requestId, int attempts) {
+        return Futures.toCompletableFuture(
+                firestore.collection(Config.METADATA_COLLECTION)
+                        .document(requestId)
+                        .update(AnalysisClaim.DETECTION_ATTEMPTS, attempts)
+        ).thenApply(writeResult -> null);
+    }
+
+    @Override
+    public AnalysisMetadata getAnalysisMetadata(String requestId) {
+        try {
+            return getAnalysisMetadataAsync(requestId).join();
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -113,63 +286,298 @@ public class FirestoreMetadataStorage implements MetadataStorage {
     }
 
     @Override
-    public AnalysisMetadata[] getAnalysisMetadataByConfidenceThreshold(double confidenceThreshold) {
-        try {
-            var landmarkDocs = firestore.collectionGroup("landmarks")
-                    .whereGreaterThan("confidence", confidenceThreshold)
-                    .get()
-                    .get()
-                    .getDocuments();
-
-            var requestIds = landmarkDocs.stream()
-                    .map(doc -> doc.getReference().getParent().getParent().getId())
-                    .distinct()
-                    .toList();
-
-            var metadataFutures = firestore.getAll(
-                    requestIds.stream()
-                            .map(id -> firestore.collection(Config.METADATA_COLLECTION).document(id))
-                            .toArray(DocumentReference[]::new)
-            );
+    public CompletableFuture<AnalysisMetadata> getAnalysisMetadataAsync(String requestId) {
+        return readAnalysisMetadata(requestId);
+    }
 
-            var landmarkFutures = requestIds.stream()
-                    .collect(Collectors.toMap(
-                            id -> id,
-                            id -> firestore.collection(Config.METADATA_COLLECTION)
-                                    .document(id)
-                                    .collection("landmarks")
-                                    .get()
-                    ));
-
-            var metadataSnapshots = metadataFutures.get();
-            Map<String, List<LandmarkMetadata>> landmarksMap = new HashMap<>();
-            for (var entry : landmarkFutures.entrySet()) {
-                var docs = entry.getValue().get().getDocuments();
-                landmarksMap.put(entry.getKey(),
-                        docs.stream()
-                                .map(doc -> doc.toObject(LandmarkMetadata.class))
-                                .toList()
-                );
-            }
+    @Override
+    public CompletableFuture<Map<String, AnalysisMetadata>> getAnalysisMetadataBatchAsync(Collection<String> requestIds) {
+        List<String> distinctIds = List.copyOf(new LinkedHashSet<>(requestIds));
+
+        List<CompletableFuture<Map<String, AnalysisMetadata>>> reads = new ArrayList<>();
+        for (int from = 0; from < distinctIds.size(); from += MAX_BATCH_READS) {
+            List<String> chunk = distinctIds.subList(from, Math.min(from + MAX_BATCH_READS, distinctIds.size()));
+            reads.add(readAnalysisMetadataBatch(chunk));
+        }
+
+        return CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Map<String, AnalysisMetadata> found = new HashMap<>();
+                    reads.forEach(read -> found.putAll(read.join()));
 
-            List<AnalysisMetadata> result = new ArrayList<>();
-            for (var snapshot : metadataSnapshots) {
-                if (snapshot.exists()) {
-                    AnalysisMetadataDTO dto = snapshot.toObject(AnalysisMetadataDTO.class);
-                    String id = snapshot.getId();
-                    result.add(new AnalysisMetadata(
-                            dto.photoId(),
-                            dto.photoName(),
-                            dto.status(),
-                            landmarksMap.getOrDefault(id, List.of())
-                    ));
+                    Map<String, AnalysisMetadata> result = new LinkedHashMap<>();
+                    for (String requestId : distinctIds) {
+                        AnalysisMetadata metadata = found.get(requestId);
+                        if (metadata != null) {
+                            result.put(requestId, metadata);
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Reads the parent documents in a single round trip, then the landmark
+     * subcollections of the documents without embedded landmarks, concurrently.
+     */
+    private CompletableFuture<Map<String, AnalysisMetadata>> readAnalysisMetadataBatch(List<String> requestIds) {
+        DocumentReference[] documents = requestIds.stream()
+                .map(requestId -> firestore.collection(Config.METADATA_COLLECTION).document(requestId))
+                .toArray(DocumentReference[]::new);
+
+        return Futures.toCompletableFuture(firestore.getAll(documents))
+                .thenCompose(snapshots -> {
+                    Map<String, CompletableFuture<AnalysisMetadata>> entries = new HashMap<>();
+                    for (DocumentSnapshot snapshot : snapshots) {
+                        AnalysisMetadataDTO metadata = snapshot.toObject(AnalysisMetadataDTO.class);
+                        if (metadata == null) {
+                            continue;
+                        }
+                        entries.put(snapshot.getId(), metadata.landmarks() != null
+                                ? CompletableFuture.completedFuture(toAnalysisMetadata(metadata, List.of()))
+                                : readLandmarks(snapshot.getId()).thenApply(landmarks -> toAnalysisMetadata(metadata, landmarks)));
+                    }
+
+                    return CompletableFuture.allOf(entries.values().toArray(CompletableFuture[]::new))
+                            .thenApply(ignored -> {
+                                Map<String, AnalysisMetadata> result = new HashMap<>();
+                                entries.forEach((requestId, entry) -> result.put(requestId, entry.join()));
+                                return result;
+                            });
+                });
+    }
+
+    @Override
+    public MetadataSubscription watchAnalysisMetadata(
+            String requestId,
+            Consumer<AnalysisMetadata> listener,
+            Consumer<Throwable> errorListener
+    ) {
+        AtomicBoolean finished = new AtomicBoolean(false);
+
+        ListenerRegistration registration = firestore.collection(Config.METADATA_COLLECTION)
+                .document(requestId)
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        // Firestore does not call the listener again after an error.
+                        if (finished.compareAndSet(false, true)) {
+                            errorListener.accept(error);
+                        }
+                        return;
+                    }
+                    if (snapshot == null || !snapshot.exists()) {
+                        return;
+                    }
+
+                    AnalysisMetadataDTO metadata = snapshot.toObject(AnalysisMetadataDTO.class);
+                    if (metadata == null || metadata.status() == Status.IN_PROGRESS || !finished.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    readAnalysisMetadata(requestId).whenComplete((finishedMetadata, readError) -> {
+                        if (readError != null) {
+                            errorListener.accept(readError);
+                        } else {
+                            listener.accept(finishedMetadata);
+                        }
+                    });
+                });
+
+        return registration::remove;
+    }
+
+    @Override
+    public MetadataSubscription watchCompletedAnalyses(
+            Instant since,
+            BiConsumer<String, AnalysisMetadata> listener,
+            Consumer<Throwable> errorListener
+    ) {
+        ListenerRegistration registration = firestore.collection(Config.METADATA_COLLECTION)
+                .whereGreaterThanOrEqualTo(
+                        LandmarkSummary.COMPLETED_AT,
+                        Timestamp.ofTimeSecondsAndNanos(since.getEpochSecond(), since.getNano())
+                )
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        // Firestore does not call the listener again after an error.
+                        errorListener.accept(error);
+                        return;
+                    }
+                    if (snapshot == null) {
+                        return;
+                    }
+
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            continue;
+                        }
+                        AnalysisMetadataDTO metadata = change.getDocument().toObject(AnalysisMetadataDTO.class);
+                        listener.accept(change.getDocument().getId(), metadata.toSummaryMetadata());
+                    }
+                });
+
+        return registration::remove;
+    }
+
+    @Override
+    public CompletableFuture<AnalysisMetadata> getLatestSuccessfulAnalysisAsync(String photoId) {
+        return Futures.toCompletableFuture(
+                        firestore.collection(Config.PHOTO_INDEX_COLLECTION)
+                                .document(photoId)
+                                .get()
+                )
+                .thenCompose(snapshot -> {
+                    String requestId = snapshot.exists() ? snapshot.getString("requestId") : null;
+                    if (requestId == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return readAnalysisMetadata(requestId);
+                })
+                .thenApply(metadata -> metadata != null && metadata.status() == Status.SUCCESS ? metadata : null);
+    }
+
+    /**
+     * Reads an analysis written with either layout.
+     * <p>
+     * With the embedded layout, the subcollection is only queried for documents
+     * that were not migrated yet. With the subcollection layout, both reads run
+     * concurrently and embedded landmarks take precedence.
+     */
+    private CompletableFuture<AnalysisMetadata> readAnalysisMetadata(String requestId) {
+        CompletableFuture<AnalysisMetadataDTO> metadataFuture = Futures.toCompletableFuture(
+                firestore.collection(Config.METADATA_COLLECTION)
+                        .document(requestId)
+                        .get()
+        ).thenApply(snapshot -> snapshot.toObject(AnalysisMetadataDTO.class));
+
+        if (layout == MetadataLayout.EMBEDDED) {
+            return metadataFuture.thenCompose(metadata -> {
+                if (metadata == null || metadata.landmarks() != null) {
+                    return CompletableFuture.completedFuture(toAnalysisMetadata(metadata, List.of()));
                 }
-            }
+                return readLandmarks(requestId).thenApply(landmarks -> toAnalysisMetadata(metadata, landmarks));
+            });
+        }
 
-            return result.toArray(AnalysisMetadata[]::new);
+        return metadataFuture.thenCombine(readLandmarks(requestId), FirestoreMetadataStorage::toAnalysisMetadata);
+    }
+
+    private CompletableFuture<List<LandmarkMetadata>> readLandmarks(String requestId) {
+        return Futures.toCompletableFuture(
+                firestore.collection(Config.METADATA_COLLECTION)
+                        .document(requestId)
+                        .collection("landmarks")
+                        .get()
+        ).thenApply(snapshot -> snapshot.getDocuments()
+                .stream()
+                .map(doc -> doc.toObject(LandmarkMetadata.class))
+                .toList());
+    }
+
+    private static AnalysisMetadata toAnalysisMetadata(AnalysisMetadataDTO metadata, List<LandmarkMetadata> subcollectionLandmarks) {
+        if (metadata == null) {
+            return null;
+        }
+
+        return new AnalysisMetadata(
+                metadata.photoId(),
+                metadata.photoName(),
+                metadata.status(),
+                metadata.landmarks() != null ? metadata.landmarks() : subcollectionLandmarks
+        );
+    }
+
+    @Override
+    public AnalysisMetadata[] getAnalysisMetadataByConfidenceThreshold(double confidenceThreshold) {
+        try {
+            return getAnalysisMetadataByConfidenceThresholdAsync(confidenceThreshold).join();
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
+
+    @Override
+    public CompletableFuture<AnalysisMetadata[]> getAnalysisMetadataByConfidenceThresholdAsync(double confidenceThreshold) {
+        return Futures.toCompletableFuture(
+                firestore.collection(Config.METADATA_COLLECTION)
+                        .whereGreaterThan(LandmarkSummary.MAX_CONFIDENCE, confidenceThreshold)
+                        .get()
+        ).thenApply(snapshot -> snapshot.getDocuments()
+                .stream()
+                .map(doc -> doc.toObject(AnalysisMetadataDTO.class).toSummaryMetadata())
+                .toArray(AnalysisMetadata[]::new));
+    }
+
+    @Override
+    public MetadataPage getAnalysisMetadataPageByConfidenceThreshold(double confidenceThreshold, int pageSize, String cursor) {
+        CompletableFuture<MetadataPage> page = getAnalysisMetadataPageByConfidenceThresholdAsync(confidenceThreshold, pageSize, cursor);
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InvalidCursorException invalidCursor) {
+                throw invalidCursor;
+            }
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<MetadataPage> getAnalysisMetadataPageByConfidenceThresholdAsync(double confidenceThreshold, int pageSize, String cursor) {
+        Query query = firestore.collection(Config.METADATA_COLLECTION)
+                .whereGreaterThan(LandmarkSummary.MAX_CONFIDENCE, confidenceThreshold)
+                .orderBy(LandmarkSummary.MAX_CONFIDENCE)
+                .orderBy(FieldPath.documentId())
+                .limit(pageSize);
+
+        if (cursor != null) {
+            Object[] position;
+            try {
+                position = decodeCursor(cursor);
+            } catch (InvalidCursorException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            query = query.startAfter(position);
+        }
+
+        return Futures.toCompletableFuture(query.get()).thenApply(snapshot -> {
+            List<QueryDocumentSnapshot> docs = snapshot.getDocuments();
+
+            Map<String, AnalysisMetadata> items = new LinkedHashMap<>();
+            for (QueryDocumentSnapshot doc : docs) {
+                items.put(doc.getId(), doc.toObject(AnalysisMetadataDTO.class).toSummaryMetadata());
+            }
+
+            String nextCursor = docs.size() < pageSize
+                    ? null
+                    : encodeCursor(docs.getLast());
+
+            return new MetadataPage(items, nextCursor);
+        });
+    }
+
+    private static String encodeCursor(QueryDocumentSnapshot last) {
+        String position = last.getDouble(LandmarkSummary.MAX_CONFIDENCE) + "\n" + last.getReference().getPath();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor made by {@link #encodeCursor(QueryDocumentSnapshot)}.
+     *
+     * @return The confidence and the document reference to start after.
+     * @throws InvalidCursorException If the cursor is not valid.
+     */
+    private Object[] decodeCursor(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 2);
+            double confidence = Double.parseDouble(position[0]);
+            if (position.length != 2 || !position[1].startsWith(Config.METADATA_COLLECTION + "/")) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new Object[] { confidence, firestore.document(position[1]) };
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new InvalidCursorException(cursor, e);
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+/**
+ * Signals that a page cursor could not be decoded, so it was not returned with a previous page.
+ */
+public class InvalidCursorException extends IllegalArgumentException {
+    public InvalidCursorException(String cursor, Throwable cause) {
+        super("Invalid cursor: " + cursor, cause);
+    }
+}
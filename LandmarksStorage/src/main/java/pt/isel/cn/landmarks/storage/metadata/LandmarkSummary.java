@@ -0,0 +1,44 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the landmarks of an analysis, stored in the analysis document
+ * so that confidence queries do not have to read the landmarks subcollection.
+ *
+ * @param topLandmark The most confident landmark, or null if there are none.
+ * @param maxConfidence The confidence of the most confident landmark, or null if there are none.
+ * @param landmarkCount The number of landmarks.
+ */
+public record LandmarkSummary(LandmarkMetadata topLandmark, Double maxConfidence, Integer landmarkCount) {
+    public static final String TOP_LANDMARK = "topLandmark";
+    public static final String MAX_CONFIDENCE = "maxConfidence";
+    public static final String LANDMARK_COUNT = "landmarkCount";
+    public static final String COMPLETED_AT = "completedAt";
+
+    public static LandmarkSummary of(List<LandmarkMetadata> landmarks) {
+        if (landmarks == null || landmarks.isEmpty()) {
+            return new LandmarkSummary(null, null, 0);
+        }
+        LandmarkMetadata top = landmarks.stream()
+                .max(Comparator.comparingDouble(LandmarkMetadata::confidence))
+                .orElseThrow();
+        return new LandmarkSummary(top, top.confidence(), landmarks.size());
+    }
+
+    /**
+     * @return The summary as document fields, for updates.
+     */
+    public Map<String, Object> toFields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(TOP_LANDMARK, topLandmark);
+        fields.put(MAX_CONFIDENCE, maxConfidence);
+        fields.put(LANDMARK_COUNT, landmarkCount);
+        return fields;
+    }
+}
@@ -0,0 +1,34 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import pt.isel.cn.landmarks.domain.Config;
+
+/**
+ * How the landmarks of an analysis are stored in Firestore.
+ * <p>
+ * Reads understand both layouts, so the layout can be switched while
+ * documents written with the other one are still being migrated.
+ */
+public enum MetadataLayout {
+    /**
+     * Each landmark is a document of the analysis' {@code landmarks} subcollection.
+     */
+    SUBCOLLECTION,
+
+    /**
+     * The landmarks are an array field of the analysis document, so reading
+     * or updating an analysis touches a single document.
+     */
+    EMBEDDED;
+
+    /**
+     * Reads the layout from the {@code METADATA_LAYOUT} environment variable,
+     * defaulting to {@link #SUBCOLLECTION}.
+     *
+     * @return The layout.
+     */
+    public static MetadataLayout fromEnv() {
+        return Config.getEnv("METADATA_LAYOUT", "subcollection").equalsIgnoreCase("embedded")
+                ? EMBEDDED
+                : SUBCOLLECTION;
+    }
+}
@@ -0,0 +1,13 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+import pt.isel.cn.landmarks.domain.AnalysisMetadata;
+
+import java.util.Map;
+
+/**
+ * A page of analysis metadata.
+ *
+ * @param items The analyses in the page, by request ID, in query order.
+ * @param nextCursor The cursor of the next page, or null if this is the last one.
+ */
+public record MetadataPage(Map<String, AnalysisMetadata> items, String nextCursor) {}
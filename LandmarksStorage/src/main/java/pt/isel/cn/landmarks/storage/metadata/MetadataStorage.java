@@ -4,7 +4,15 @@ import pt.isel.cn.landmarks.domain.AnalysisMetadata;
 import pt.isel.cn.landmarks.domain.LandmarkMetadata;
 import pt.isel.cn.landmarks.domain.Status;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * This interface defines the contract metadata storage.
@@ -20,14 +28,91 @@ public interface MetadataStorage {
      */
     public void saveAnalysisMetadata(String requestId, AnalysisMetadata metadata);
 
+    /**
+     * Saves the analysis metadata without blocking the caller.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param metadata The metadata to save.
+     * @return A future completed once the metadata is durably stored.
+     */
+    public CompletableFuture<Void> saveAnalysisMetadataAsync(String requestId, AnalysisMetadata metadata);
+
     /**
      * Updates the analysis metadata.
+     * <p>
+     * A successful update also records the request as the latest
+     * successful analysis of the photo.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param photoId The ID of the analysed photo.
+     * @param landmarks An array of LandmarkMetadata objects representing the detected landmarks.
+     * @param status The status of the analysis.
+     */
+    public void updateAnalysisMetadata(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status);
+
+    /**
+     * Updates the analysis metadata without blocking the caller.
      *
      * @param requestId The unique identifier for the request.
+     * @param photoId The ID of the analysed photo.
      * @param landmarks An array of LandmarkMetadata objects representing the detected landmarks.
      * @param status The status of the analysis.
+     * @return A future completed once the update is durably stored.
+     */
+    public CompletableFuture<Void> updateAnalysisMetadataAsync(String requestId, String photoId, List<LandmarkMetadata> landmarks, Status status);
+
+    /**
+     * Updates several analyses without blocking the caller.
+     * <p>
+     * The updates are written in as few commits as possible. Each commit is
+     * atomic, but a failed commit does not prevent the others from being written.
+     *
+     * @param updates The updates to write.
+     * @return A future completed with the request IDs whose update could not be written.
+     */
+    public CompletableFuture<Set<String>> updateAnalysisMetadataBatchAsync(List<AnalysisUpdate> updates);
+
+    /**
+     * Claims an analysis in progress for processing.
+     * <p>
+     * The claim is a lease, so if the owner stops before finishing, the
+     * analysis can be claimed again once the lease expires. Claiming an
+     * analysis already held by the same owner renews the lease. The lease
+     * is released when the analysis is updated to a terminal state.
+     * <p>
+     * A dead-lettered analysis can be claimed too, which puts it back in progress.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param owner The identifier of the claiming process.
+     * @param leaseDuration How long the claim lasts.
+     * @return A future completed with the outcome of the claim.
+     */
+    public CompletableFuture<AnalysisClaim> claimAnalysisAsync(String requestId, String owner, Duration leaseDuration);
+
+    /**
+     * Releases a lease taken with {@link #claimAnalysisAsync(String, String, Duration)},
+     * so the analysis can be claimed again right away.
+     * <p>
+     * Nothing changes if the lease is held by another owner.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param owner The identifier of the process that claimed the analysis.
+     * @return A future completed once the lease is released.
      */
-    public void updateAnalysisMetadata(String requestId, List<LandmarkMetadata> landmarks, Status status);
+    public CompletableFuture<Void> releaseAnalysisAsync(String requestId, String owner);
+
+    /**
+     * Records the detection attempts made so far on an analysis in progress,
+     * so the next delivery of its request carries on counting from there.
+     * <p>
+     * The count is returned by {@link #claimAnalysisAsync(String, String, Duration)}
+     * and cleared when the analysis is updated to a terminal state.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param attempts The number of attempts made so far.
+     * @return A future completed once the attempts are recorded.
+     */
+    public CompletableFuture<Void> recordDetectionAttemptsAsync(String requestId, int attempts);
 
     /**
      * Retrieves the analysis metadata by photo ID.
@@ -37,12 +122,118 @@ public interface MetadataStorage {
      */
     public AnalysisMetadata getAnalysisMetadata(String requestId);
 
+    /**
+     * Retrieves the analysis metadata without blocking the caller.
+     *
+     * @param requestId The unique identifier for the request.
+     * @return A future completed with the analysis metadata, or null if there is no such request.
+     */
+    public CompletableFuture<AnalysisMetadata> getAnalysisMetadataAsync(String requestId);
+
+    /**
+     * Retrieves several analyses without blocking the caller.
+     * <p>
+     * The analyses are read with as few round trips as possible.
+     *
+     * @param requestIds The unique identifiers for the requests.
+     * @return A future completed with the analysis metadata by request ID. Requests that do not exist are left out.
+     */
+    public CompletableFuture<Map<String, AnalysisMetadata>> getAnalysisMetadataBatchAsync(Collection<String> requestIds);
+
+    /**
+     * Watches an analysis until it reaches a terminal state.
+     * <p>
+     * The listener is called once, with the metadata and its landmarks, when
+     * the status becomes SUCCESS, FAILURE or DEAD_LETTERED. If the analysis already finished,
+     * it is called right away.
+     * <p>
+     * If watching or reading the finished analysis fails, the error listener
+     * is called instead, and the listener is never called.
+     *
+     * @param requestId The unique identifier for the request.
+     * @param listener The listener to call with the finished analysis.
+     * @param errorListener The listener to call if watching fails.
+     * @return A subscription that stops watching the analysis.
+     */
+    public MetadataSubscription watchAnalysisMetadata(
+        String requestId,
+        Consumer<AnalysisMetadata> listener,
+        Consumer<Throwable> errorListener
+    );
+
+    /**
+     * Watches the analyses that finish from a given instant on.
+     * <p>
+     * The listener is called with the request ID and the analysis, with only
+     * its most confident landmark, whenever an analysis reaches a terminal state.
+     * <p>
+     * If watching fails, the error listener is called and no more analyses are reported.
+     *
+     * @param since The instant from which finished analyses are reported.
+     * @param listener The listener to call with each finished analysis.
+     * @param errorListener The listener to call if watching fails.
+     * @return A subscription that stops watching the analyses.
+     */
+    public MetadataSubscription watchCompletedAnalyses(
+        Instant since,
+        BiConsumer<String, AnalysisMetadata> listener,
+        Consumer<Throwable> errorListener
+    );
+
+    /**
+     * Retrieves the latest successful analysis of a photo, if there is one.
+     *
+     * @param photoId The ID of the photo.
+     * @return A future completed with the analysis metadata, or null if the photo was never successfully analysed.
+     */
+    public CompletableFuture<AnalysisMetadata> getLatestSuccessfulAnalysisAsync(String photoId);
+
     /**
      * Retrieves all analysis metadata above a certain confidence threshold.
+     * <p>
+     * Only the most confident landmark of each analysis is included.
      *
      * @return An array of all analysis metadata.
      */
     public AnalysisMetadata[] getAnalysisMetadataByConfidenceThreshold(
         double confidenceThreshold
     );
+
+    /**
+     * Retrieves all analysis metadata above a certain confidence threshold without blocking the caller.
+     *
+     * @return A future completed with the analysis metadata.
+     */
+    public CompletableFuture<AnalysisMetadata[]> getAnalysisMetadataByConfidenceThresholdAsync(
+        double confidenceThreshold
+    );
+
+    /**
+     * Retrieves one page of the analyses with a landmark above a certain confidence threshold.
+     * <p>
+     * Only the most confident landmark of each analysis is included.
+     *
+     * @param confidenceThreshold The confidence threshold.
+     * @param pageSize The maximum number of analyses in the page.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @return The page.
+     * @throws InvalidCursorException If the cursor is not valid.
+     */
+    public MetadataPage getAnalysisMetadataPageByConfidenceThreshold(
+        double confidenceThreshold,
+        int pageSize,
+        String cursor
+    );
+
+    /**
+     * Retrieves one page of the analyses above a certain confidence threshold without blocking the caller.
+     *
+     * @return A future completed with the page, or failed with an InvalidCursorException if the cursor is not valid.
+     * @see #getAnalysisMetadataPageByConfidenceThreshold(double, int, String)
+     */
+    public CompletableFuture<MetadataPage> getAnalysisMetadataPageByConfidenceThresholdAsync(
+        double confidenceThreshold,
+        int pageSize,
+        String cursor
+    );
 }
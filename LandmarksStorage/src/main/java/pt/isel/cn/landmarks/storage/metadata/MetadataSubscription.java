@@ -0,0 +1,12 @@
+package pt.isel.cn.landmarks.storage.metadata;
+
+/**
+ * A registration of a listener for changes in the stored metadata.
+ */
+@FunctionalInterface
+public interface MetadataSubscription {
+    /**
+     * Stops delivering changes to the listener.
+     */
+    void cancel();
+}
@@ -0,0 +1,155 @@
+package pt.isel.cn.landmarks.storage.migration;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+import pt.isel.cn.landmarks.domain.Status;
+import pt.isel.cn.landmarks.storage.metadata.AnalysisMetadataDTO;
+import pt.isel.cn.landmarks.storage.metadata.LandmarkSummary;
+import pt.isel.cn.landmarks.storage.metadata.MetadataLayout;
+import pt.isel.cn.landmarks.storage.util.Futures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Rewrites the analysis documents written with the
+ * {@link MetadataLayout#SUBCOLLECTION} layout to the {@link MetadataLayout#EMBEDDED} one.
+ * <p>
+ * The landmarks of each analysis are copied into the analysis document. With
+ * {@code --delete-subcollection}, the landmark documents are deleted afterwards.
+ * Reads fall back to the subcollection for documents that were not migrated,
+ * so the servers and workers can keep running while the tool runs, and the
+ * tool can be stopped and run again.
+ * <p>
+ * Analyses still in progress are skipped, since a worker may be about to
+ * store their results, and each document is only rewritten if it did not
+ * change since it was read. Skipped documents are migrated by a later run.
+ * <p>
+ * Usage: {@code EmbeddedLandmarksMigration [--dry-run] [--delete-subcollection]}
+ */
+public class EmbeddedLandmarksMigration {
+    private static final int PAGE_SIZE = 200;
+
+    private final Firestore firestore;
+    private final boolean dryRun;
+    private final boolean deleteSubcollection;
+
+    public EmbeddedLandmarksMigration(Firestore firestore, boolean dryRun, boolean deleteSubcollection) {
+        this.firestore = firestore;
+        this.dryRun = dryRun;
+        this.deleteSubcollection = deleteSubcollection;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = List.of(args);
+        try (Firestore firestore = FirestoreOptions.getDefaultInstance().getService()) {
+            new EmbeddedLandmarksMigration(
+                    firestore,
+                    options.contains("--dry-run"),
+                    options.contains("--delete-subcollection")
+            ).run();
+        }
+    }
+
+    /**
+     * Migrates every analysis document.
+     */
+    public void run() throws Exception {
+        long scanned = 0;
+        long migrated = 0;
+        long skipped = 0;
+        QueryDocumentSnapshot last = null;
+
+        while (true) {
+            Query query = firestore.collection(Config.METADATA_COLLECTION)
+                    .orderBy(FieldPath.documentId())
+                    .limit(PAGE_SIZE);
+            if (last != null) {
+                query = query.startAfter(last);
+            }
+
+            List<QueryDocumentSnapshot> docs = query.get().get().getDocuments();
+            if (docs.isEmpty()) {
+                break;
+            }
+
+            List<QueryDocumentSnapshot> pending = docs.stream()
+                    .filter(doc -> doc.get(AnalysisMetadataDTO.LANDMARKS) == null)
+                    .toList();
+            List<QueryDocumentSnapshot> finished = pending.stream()
+                    .filter(doc -> !Status.IN_PROGRESS.name().equals(doc.getString("status")))
+                    .toList();
+
+            migrated += dryRun ? finished.size() : migratePage(finished);
+            skipped += pending.size() - finished.size();
+            scanned += docs.size();
+            last = docs.getLast();
+            System.out.println("Scanned " + scanned + " analyses, " + (dryRun ? "would migrate " : "migrated ") + migrated + ", skipped " + skipped);
+        }
+
+        System.out.println("Migration finished: " + scanned + " analyses scanned, " + migrated + (dryRun ? " to migrate" : " migrated")
+                + ", " + skipped + " skipped, run again to migrate them");
+    }
+
+    /**
+     * Migrates finished analyses that were not migrated yet.
+     *
+     * @return The number of analyses migrated.
+     */
+    private int migratePage(List<QueryDocumentSnapshot> pending) throws Exception {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<QuerySnapshot>> subcollections = pending.stream()
+                .map(doc -> Futures.toCompletableFuture(doc.getReference().collection("landmarks").get()))
+                .toList();
+
+        BulkWriter writer = firestore.bulkWriter();
+        List<ApiFuture<WriteResult>> updates = new ArrayList<>();
+        List<QuerySnapshot> landmarkDocsByAnalysis = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            QuerySnapshot landmarkDocs = subcollections.get(i).join();
+            List<LandmarkMetadata> landmarks = landmarkDocs.getDocuments()
+                    .stream()
+                    .map(doc -> doc.toObject(LandmarkMetadata.class))
+                    .toList();
+
+            Map<String, Object> fields = LandmarkSummary.of(landmarks).toFields();
+            fields.put(AnalysisMetadataDTO.LANDMARKS, landmarks);
+            QueryDocumentSnapshot doc = pending.get(i);
+            updates.add(writer.update(doc.getReference(), fields, Precondition.updatedAt(doc.getUpdateTime())));
+            landmarkDocsByAnalysis.add(landmarkDocs);
+        }
+        writer.flush().get();
+
+        int migrated = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                updates.get(i).get();
+            } catch (ExecutionException e) {
+                System.out.println("Skipped " + pending.get(i).getId() + ", it changed while being migrated");
+                continue;
+            }
+            migrated++;
+            if (deleteSubcollection) {
+                landmarkDocsByAnalysis.get(i).getDocuments().forEach(doc -> writer.delete(doc.getReference()));
+            }
+        }
+        writer.close();
+        return migrated;
+    }
+}
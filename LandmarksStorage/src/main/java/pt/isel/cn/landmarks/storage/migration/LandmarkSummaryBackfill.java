@@ -0,0 +1,132 @@
+package pt.isel.cn.landmarks.storage.migration;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteResult;
+import pt.isel.cn.landmarks.domain.Config;
+import pt.isel.cn.landmarks.domain.LandmarkMetadata;
+import pt.isel.cn.landmarks.domain.Status;
+import pt.isel.cn.landmarks.storage.metadata.LandmarkSummary;
+import pt.isel.cn.landmarks.storage.util.Futures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Adds the landmark summary fields to the analysis documents written before
+ * they existed, so that confidence queries also find the older analyses.
+ * <p>
+ * The documents are read in pages ordered by ID, and only the ones without
+ * a landmark count are updated, so the tool can be stopped and run again.
+ * <p>
+ * Analyses still in progress are skipped, since a worker may be about to
+ * store their results, and each document is only updated if it did not
+ * change since it was read. Skipped documents are backfilled by a later run.
+ * <p>
+ * Usage: {@code LandmarkSummaryBackfill [--dry-run]}
+ */
+public class LandmarkSummaryBackfill {
+    private static final int PAGE_SIZE = 200;
+
+    private final Firestore firestore;
+    private final boolean dryRun;
+
+    public LandmarkSummaryBackfill(Firestore firestore, boolean dryRun) {
+        this.firestore = firestore;
+        this.dryRun = dryRun;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean dryRun = List.of(args).contains("--dry-run");
+        try (Firestore firestore = FirestoreOptions.getDefaultInstance().getService()) {
+            new LandmarkSummaryBackfill(firestore, dryRun).run();
+        }
+    }
+
+    /**
+     * Backfills every analysis document.
+     */
+    public void run() throws Exception {
+        long scanned = 0;
+        long updated = 0;
+        long skipped = 0;
+        QueryDocumentSnapshot last = null;
+
+        while (true) {
+            Query query = firestore.collection(Config.METADATA_COLLECTION)
+                    .orderBy(FieldPath.documentId())
+                    .limit(PAGE_SIZE);
+            if (last != null) {
+                query = query.startAfter(last);
+            }
+
+            List<QueryDocumentSnapshot> docs = query.get().get().getDocuments();
+            if (docs.isEmpty()) {
+                break;
+            }
+
+            List<QueryDocumentSnapshot> pending = docs.stream()
+                    .filter(doc -> !doc.contains(LandmarkSummary.LANDMARK_COUNT))
+                    .toList();
+            List<QueryDocumentSnapshot> finished = pending.stream()
+                    .filter(doc -> !Status.IN_PROGRESS.name().equals(doc.getString("status")))
+                    .toList();
+
+            updated += dryRun ? finished.size() : backfillPage(finished);
+            skipped += pending.size() - finished.size();
+            scanned += docs.size();
+            last = docs.getLast();
+            System.out.println("Scanned " + scanned + " analyses, " + (dryRun ? "would update " : "updated ") + updated + ", skipped " + skipped);
+        }
+
+        System.out.println("Backfill finished: " + scanned + " analyses scanned, " + updated + (dryRun ? " to update" : " updated")
+                + ", " + skipped + " skipped, run again to backfill them");
+    }
+
+    /**
+     * Backfills finished analyses that have no summary yet.
+     *
+     * @return The number of analyses updated.
+     */
+    private int backfillPage(List<QueryDocumentSnapshot> pending) throws Exception {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<LandmarkSummary>> summaries = pending.stream()
+                .map(doc -> Futures.toCompletableFuture(doc.getReference().collection("landmarks").get())
+                        .thenApply(snapshot -> LandmarkSummary.of(snapshot.getDocuments()
+                                .stream()
+                                .map(landmark -> landmark.toObject(LandmarkMetadata.class))
+                                .toList())))
+                .toList();
+
+        BulkWriter writer = firestore.bulkWriter();
+        List<ApiFuture<WriteResult>> updates = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            QueryDocumentSnapshot doc = pending.get(i);
+            updates.add(writer.update(doc.getReference(), summaries.get(i).join().toFields(), Precondition.updatedAt(doc.getUpdateTime())));
+        }
+        writer.close();
+
+        int updated = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                updates.get(i).get();
+            } catch (ExecutionException e) {
+                System.out.println("Skipped " + pending.get(i).getId() + ", it changed while being backfilled");
+                continue;
+            }
+            updated++;
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,39 @@
+package pt.isel.cn.landmarks.storage.util;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Utility methods to bridge Google Cloud futures into {@link CompletableFuture}s.
+ */
+public class Futures {
+    private Futures() {}
+
+    /**
+     * Adapts an {@link ApiFuture} into a {@link CompletableFuture} without blocking.
+     * <p>
+     * The returned future is completed on the thread that completes the original future.
+     *
+     * @param future The future to adapt.
+     * @return A future completed with the same value or exception as the original.
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+            @Override
+            public void onFailure(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+}